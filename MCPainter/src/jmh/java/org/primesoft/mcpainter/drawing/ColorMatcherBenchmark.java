@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Color matcher benchmark. Compares the linear ImageHelper.colorDistance scan
+ * with the matcher single and batch search, the setup checks that all of them
+ * return the same palette indices.
+ *
+ * The vector kernel is only in the multi-release jar and is only used when
+ * the jdk.incubator.vector module is added, batchVector forks the JVM with
+ * the module (JDK 16 or newer). The benchmark profile packages the plugin and
+ * runs the benchmark against the jar:
+ * <pre>
+ * mvn -P benchmark verify
+ * </pre>
+ *
+ * @author SBPrime
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ColorMatcherBenchmark.PIXELS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ColorMatcherBenchmark {
+
+    static final int PIXELS = 65536;
+
+    private static final int BATCH = 1024;
+
+    @Param({"16", "64", "256", "1024"})
+    int m_paletteSize;
+
+    private int[] m_palette;
+    private int[] m_colors;
+    private int[] m_result;
+    private int[] m_buffer;
+    private ColorMatcher m_matcher;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(m_paletteSize);
+        m_palette = randomColors(rnd, m_paletteSize);
+        m_colors = randomColors(rnd, PIXELS);
+        m_result = new int[PIXELS];
+        m_buffer = new int[BATCH];
+        m_matcher = new ColorMatcher(m_palette);
+
+        int[] expected = linear().clone();
+        int[] single = single().clone();
+        int[] batch = batch();
+        for (int i = 0; i < PIXELS; i++) {
+            if (single[i] != expected[i] || batch[i] != expected[i]) {
+                throw new IllegalStateException("Matcher result differs from the linear scan at pixel " + i);
+            }
+        }
+    }
+
+    /**
+     * The reference linear scan
+     *
+     * @return palette indices
+     */
+    @Benchmark
+    public int[] linear() {
+        final int[] palette = m_palette;
+        final int[] colors = m_colors;
+        final int[] result = m_result;
+        for (int i = 0; i < colors.length; i++) {
+            int c = colors[i];
+            int best = -1;
+            double closest = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < palette.length; j++) {
+                int p = palette[j];
+                double dist = ImageHelper.colorDistance((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff, c >>> 24,
+                        (p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, p >>> 24);
+                if (dist < closest) {
+                    best = j;
+                    closest = dist;
+                }
+            }
+            result[i] = best;
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int[] single() {
+        final int[] colors = m_colors;
+        final int[] result = m_result;
+        for (int i = 0; i < colors.length; i++) {
+            int c = colors[i];
+            result[i] = m_matcher.findClosest((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff, c >>> 24);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int[] batch() {
+        for (int offset = 0; offset < PIXELS; offset += BATCH) {
+            m_matcher.findClosest(m_colors, offset, BATCH, m_buffer);
+            System.arraycopy(m_buffer, 0, m_result, offset, BATCH);
+        }
+        return m_result;
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public int[] batchVector() {
+        if (!m_matcher.isVectorized()) {
+            throw new IllegalStateException("The vector kernel is not loaded, run the benchmark from the jar");
+        }
+        return batch();
+    }
+
+    /**
+     * Random colors, half of them opaque
+     *
+     * @param rnd the random generator
+     * @param cnt number of colors
+     * @return packed ARGB colors
+     */
+    private static int[] randomColors(Random rnd, int cnt) {
+        int[] result = new int[cnt];
+        for (int i = 0; i < cnt; i++) {
+            int alpha = rnd.nextBoolean() ? 255 : rnd.nextInt(256);
+            result[i] = (alpha << 24) | (rnd.nextInt() & 0xffffff);
+        }
+        return result;
+    }
+}
@@ -23,6 +23,7 @@
  */
 package org.primesoft.mcpainter;
 
+import org.primesoft.mcpainter.blocksplacer.PackedPosition;
 import org.primesoft.mcpainter.configuration.ConfigProvider;
 import org.primesoft.mcpainter.utils.BaseBlock;
 import org.primesoft.mcpainter.utils.Vector;
@@ -33,7 +34,6 @@ import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.primesoft.blockshub.IBlocksHubApi;
 import org.primesoft.blockshub.IBlocksHubApiProvider;
-import org.primesoft.blockshub.api.platform.BukkitBlockData;
 
 /**
  *
@@ -43,6 +43,15 @@ public class BlocksHubIntegration {
 
     private final boolean m_isInitialized;
     private final IBlocksHubApi m_blocksApi;
+    private final JavaPlugin m_plugin;
+    /**
+     * The block log buffer (created on first use)
+     */
+    private BlocksHubLogger m_logger;
+    /**
+     * The logging was stopped, no new log buffer is created
+     */
+    private boolean m_stopped;
 
     /**
      * Get instance of the core blocks hub plugin
@@ -66,6 +75,7 @@ public class BlocksHubIntegration {
 
     public BlocksHubIntegration(JavaPlugin plugin) {
         IBlocksHubApiProvider bh = getBlocksHub(plugin);
+        m_plugin = plugin;
         m_blocksApi = bh != null ? bh.getApi() : null;
         m_isInitialized = m_blocksApi != null && m_blocksApi.getVersion() >= 1.0;
     }
@@ -87,19 +97,65 @@ public class BlocksHubIntegration {
                 x, y, z);
     }
 
+    /**
+     * Are the placed blocks logged
+     *
+     * @return
+     */
+    public boolean isLogging() {
+        return m_isInitialized && ConfigProvider.getLogBlocks();
+    }
+
     public void logBlock(Player player, World world, Vector location, BaseBlock oldBlock, BaseBlock newBlock) {
-        if (location == null || !ConfigProvider.getLogBlocks()) {
+        if (location == null || !isLogging()) {
+            return;
+        }
+
+        BlocksHubLogger logger = getLogger();
+        if (logger == null) {
             return;
         }
-       
-        final BukkitBlockData oldBlockData = oldBlock != null && oldBlock.Data != null ? new BukkitBlockData(oldBlock.Data) : null;
-        final BukkitBlockData newBlockData = newBlock != null && newBlock.Data != null ? new BukkitBlockData(newBlock.Data) : null;
-        
-        m_blocksApi.logBlock(                
-                player.getUniqueId(), world.getUID(),
-                location.getX(), location.getY(), location.getZ(),
-                oldBlockData,
-                newBlockData
-        );
+
+        logger.add(player.getUniqueId(), world.getUID(), PackedPosition.pack(location),
+                oldBlock != null ? oldBlock.Data : null,
+                newBlock != null ? newBlock.Data : null);
+    }
+
+    /**
+     * Get the number of blocks that can be logged without overfilling the log
+     * buffer
+     *
+     * @return
+     */
+    public int getLogSpace() {
+        if (!isLogging()) {
+            return Integer.MAX_VALUE;
+        }
+
+        BlocksHubLogger logger = getLogger();
+        return logger != null ? logger.getSpace() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get the block log buffer
+     *
+     * @return null when the logging was stopped
+     */
+    private synchronized BlocksHubLogger getLogger() {
+        if (m_logger == null && !m_stopped) {
+            m_logger = new BlocksHubLogger(m_plugin, m_blocksApi);
+        }
+        return m_logger;
+    }
+
+    /**
+     * Send the buffered block log and stop the logging task
+     */
+    public synchronized void stop() {
+        m_stopped = true;
+        if (m_logger != null) {
+            m_logger.stop();
+            m_logger = null;
+        }
     }
 }
\ No newline at end of file
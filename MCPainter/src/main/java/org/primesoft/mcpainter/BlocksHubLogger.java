@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.primesoft.blockshub.IBlocksHubApi;
+import org.primesoft.blockshub.api.platform.BukkitBlockData;
+import org.primesoft.mcpainter.blocksplacer.PackedPosition;
+import org.primesoft.mcpainter.configuration.ConfigProvider;
+
+/**
+ * Block log buffer. The placed blocks are stored in a ring buffer and sent to
+ * the blocks hub in batches from an async task. When the ring is full the
+ * blocks are dropped or stored in an overflow list of the ring size, the
+ * placing thread never sends the blocks itself. In the wait mode the block
+ * placer does not take more blocks than {@link #getSpace()} allows, the
+ * overflow list only takes the blocks logged above that estimate.
+ *
+ * @author SBPrime
+ */
+class BlocksHubLogger implements Runnable {
+
+    /**
+     * Block stored in the overflow list
+     */
+    private static class Record {
+
+        final UUID player;
+        final UUID world;
+        final long pos;
+        final BlockData oldBlock;
+        final BlockData newBlock;
+
+        Record(UUID player, UUID world, long pos, BlockData oldBlock, BlockData newBlock) {
+            this.player = player;
+            this.world = world;
+            this.pos = pos;
+            this.oldBlock = oldBlock;
+            this.newBlock = newBlock;
+        }
+    }
+
+    private final IBlocksHubApi m_blocksApi;
+
+    /**
+     * Ring buffer (size is power of 2)
+     */
+    private final UUID[] m_players;
+    private final UUID[] m_worlds;
+    private final long[] m_positions;
+    private final BlockData[] m_oldBlocks;
+    private final BlockData[] m_newBlocks;
+    private final int m_mask;
+
+    /**
+     * The next record to write
+     */
+    private final AtomicLong m_head = new AtomicLong();
+
+    /**
+     * The next record to send
+     */
+    private final AtomicLong m_tail = new AtomicLong();
+
+    /**
+     * Drop the records when the buffer is full (instead of storing them in
+     * the overflow list)
+     */
+    private final boolean m_dropOverflow;
+
+    /**
+     * Records added when the ring was full, newer than the ring records. Once
+     * not empty all records are added here until the drain takes it.
+     */
+    private List<Record> m_overflow = new ArrayList<>();
+
+    /**
+     * Maximum size of the overflow list
+     */
+    private final int m_overflowLimit;
+
+    /**
+     * Number of dropped records
+     */
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    private final Object m_writeMutex = new Object();
+    private final Object m_drainMutex = new Object();
+
+    private final BukkitTask m_task;
+
+    BlocksHubLogger(JavaPlugin plugin, IBlocksHubApi blocksApi) {
+        int size = Integer.highestOneBit(Math.max(1024, ConfigProvider.getLogBuffer() - 1)) << 1;
+
+        m_blocksApi = blocksApi;
+        m_players = new UUID[size];
+        m_worlds = new UUID[size];
+        m_positions = new long[size];
+        m_oldBlocks = new BlockData[size];
+        m_newBlocks = new BlockData[size];
+        m_mask = size - 1;
+        m_overflowLimit = size;
+        m_dropOverflow = ConfigProvider.getLogDropOverflow();
+        m_task = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this,
+                ConfigProvider.getInterval(), ConfigProvider.getInterval());
+    }
+
+    /**
+     * Add block to the log
+     *
+     * @param player
+     * @param world
+     * @param pos packed block position
+     * @param oldBlock
+     * @param newBlock
+     */
+    public void add(UUID player, UUID world, long pos, BlockData oldBlock, BlockData newBlock) {
+        synchronized (m_writeMutex) {
+            final long head = m_head.get();
+            if (!m_overflow.isEmpty() || head - m_tail.get() > m_mask) {
+                if (m_dropOverflow || m_overflow.size() >= m_overflowLimit) {
+                    m_dropped.incrementAndGet();
+                } else {
+                    m_overflow.add(new Record(player, world, pos, oldBlock, newBlock));
+                }
+                return;
+            }
+
+            final int idx = (int) head & m_mask;
+            m_players[idx] = player;
+            m_worlds[idx] = world;
+            m_positions[idx] = pos;
+            m_oldBlocks[idx] = oldBlock;
+            m_newBlocks[idx] = newBlock;
+            m_head.lazySet(head + 1);
+        }
+    }
+
+    /**
+     * Get the number of records that can be added before the ring is full
+     *
+     * @return free space, Integer.MAX_VALUE when the overflow is dropped
+     */
+    public int getSpace() {
+        if (m_dropOverflow) {
+            return Integer.MAX_VALUE;
+        }
+        synchronized (m_writeMutex) {
+            long used = m_head.get() - m_tail.get() + m_overflow.size();
+            return (int) Math.max(0, m_mask + 1 - used);
+        }
+    }
+
+    @Override
+    public void run() {
+        drain();
+    }
+
+    /**
+     * Send all buffered records to the blocks hub. The ring records written
+     * before the overflow list was taken are older than the overflow records
+     * (no ring writes are done while the overflow is not empty), so they are
+     * sent first.
+     */
+    private void drain() {
+        synchronized (m_drainMutex) {
+            sendRing(m_head.get());
+
+            final List<Record> overflow;
+            final long head;
+            synchronized (m_writeMutex) {
+                head = m_head.get();
+                if (m_overflow.isEmpty()) {
+                    overflow = Collections.emptyList();
+                } else {
+                    overflow = m_overflow;
+                    m_overflow = new ArrayList<>();
+                }
+            }
+            sendRing(head);
+            for (Record r : overflow) {
+                send(r.player, r.world, r.pos, r.oldBlock, r.newBlock);
+            }
+        }
+
+        long dropped = m_dropped.getAndSet(0);
+        if (dropped > 0) {
+            MCPainterMain.log("Block log buffer full, " + dropped + " blocks not logged.");
+        }
+    }
+
+    /**
+     * Send the ring records up to the head
+     *
+     * @param head the first record not to send
+     */
+    private void sendRing(long head) {
+        long tail = m_tail.get();
+        while (tail < head) {
+            final int idx = (int) tail & m_mask;
+            final long pos = m_positions[idx];
+            final BlockData oldBlock = m_oldBlocks[idx];
+            final BlockData newBlock = m_newBlocks[idx];
+
+            send(m_players[idx], m_worlds[idx], pos, oldBlock, newBlock);
+
+            m_players[idx] = null;
+            m_worlds[idx] = null;
+            m_oldBlocks[idx] = null;
+            m_newBlocks[idx] = null;
+            tail++;
+        }
+        m_tail.set(tail);
+    }
+
+    /**
+     * Send the block to the blocks hub
+     *
+     * @param player
+     * @param world
+     * @param pos packed block position
+     * @param oldBlock
+     * @param newBlock
+     */
+    private void send(UUID player, UUID world, long pos, BlockData oldBlock, BlockData newBlock) {
+        m_blocksApi.logBlock(player, world,
+                PackedPosition.getX(pos), PackedPosition.getY(pos), PackedPosition.getZ(pos),
+                oldBlock != null ? new BukkitBlockData(oldBlock) : null,
+                newBlock != null ? new BukkitBlockData(newBlock) : null);
+    }
+
+    /**
+     * Stop the drain task and send the remaining records
+     */
+    public void stop() {
+        m_task.cancel();
+        drain();
+    }
+}
@@ -48,6 +48,8 @@ public class EventListener implements Listener {
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
         final Player player = event.getPlayer();
+        m_parent.resumeJobs(player);
+
         if (!PermissionManager.isAllowed(player, PermissionManager.Perms.AnnounceVersion)) {
             return;
         }
@@ -43,6 +43,7 @@ public final class Help {
         ChatColor.BLUE + "ImageMap" + ChatColor.WHITE + " - draw image directly to the map",
         ChatColor.BLUE + "Jobs" + ChatColor.WHITE + " - display queued block operations",
         ChatColor.BLUE + "Mob" + ChatColor.WHITE + " - draw mob statue",
+        ChatColor.BLUE + "Order" + ChatColor.WHITE + " - set the block placing order",
         ChatColor.BLUE + "Palette" + ChatColor.WHITE + " - set current drawing palette",
         ChatColor.BLUE + "Purge" + ChatColor.WHITE + " - remove all queued block operations",
         ChatColor.BLUE + "Reload" + ChatColor.WHITE + " - reload configuration",
@@ -77,6 +78,10 @@ public final class Help {
         ChatColor.BLUE + " Block <block name>[:<data>]" + ChatColor.WHITE + " - draw block specified by name and data (data is optional)",
         ChatColor.BLUE + " Block <block id>[:<data>]" + ChatColor.WHITE + " - draw block specified by id and data (data is optional)"
     };
+    private final static String[] HelpOrder = new String[]{
+        ChatColor.YELLOW + "Order " + ChatColor.WHITE + " - set the block placing order",
+        ChatColor.BLUE + " Order" + ChatColor.WHITE + " - list available orders",
+        ChatColor.BLUE + " Order <name>" + ChatColor.WHITE + " - set the order for new drawings",};
     private final static String[] HelpPalette = new String[]{
         ChatColor.YELLOW + "Palette " + ChatColor.WHITE + " - set current drawing palette",
         ChatColor.BLUE + " Palette" + ChatColor.WHITE + " - list available palettes",
@@ -122,7 +127,10 @@ public final class Help {
         ChatColor.YELLOW + "Jobs " + ChatColor.WHITE + " - display queued block operations",
         ChatColor.BLUE + " Jobs" + ChatColor.WHITE + " - displays your operations",
         ChatColor.BLUE + " Jobs <u:playerName>" + ChatColor.WHITE + " - displays other player operations",
-        ChatColor.BLUE + " Jobs all" + ChatColor.WHITE + " - displays all queued operations",};
+        ChatColor.BLUE + " Jobs all" + ChatColor.WHITE + " - displays all queued operations",
+        ChatColor.BLUE + " Jobs cancel <id>" + ChatColor.WHITE + " - removes the job operations",
+        ChatColor.BLUE + " Jobs pause <id>" + ChatColor.WHITE + " - stops placing the job blocks",
+        ChatColor.BLUE + " Jobs resume <id>" + ChatColor.WHITE + " - continues placing the job blocks",};
     private final static String[] HelpFilter = new String[]{
         ChatColor.YELLOW + "Filter " + ChatColor.WHITE + " - manage image filters",
         ChatColor.BLUE + " Filter" + ChatColor.WHITE + " - display current filter list",
@@ -145,6 +153,8 @@ public final class Help {
                 help = HelpBlock;
             } else if (command.equalsIgnoreCase(Commands.COMMAND_PALETTE)) {
                 help = HelpPalette;
+            } else if (command.equalsIgnoreCase(Commands.COMMAND_ORDER)) {
+                help = HelpOrder;
             } else if (command.equalsIgnoreCase(Commands.COMMAND_IMAGE)) {
                 help = HelpImage;
             } else if (command.equalsIgnoreCase(Commands.COMMAND_IMAGEMAP)) {
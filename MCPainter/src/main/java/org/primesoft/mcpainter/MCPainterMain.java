@@ -24,6 +24,8 @@
 package org.primesoft.mcpainter;
 
 import org.primesoft.mcpainter.blocksplacer.BlockPlacer;
+import org.primesoft.mcpainter.blocksplacer.JobJournal;
+import org.primesoft.mcpainter.blocksplacer.PlacementOrder;
 import org.primesoft.mcpainter.utils.ExtFileFilter;
 import org.primesoft.mcpainter.utils.VersionChecker;
 import org.primesoft.mcpainter.palettes.PaletteManager;
@@ -41,6 +43,7 @@ import org.primesoft.mcpainter.drawing.blocks.IBlockProvider;
 import org.primesoft.mcpainter.drawing.blocks.MultiBlockProvider;
 import org.primesoft.mcpainter.drawing.blocks.VanillaBlockProvider;
 import org.primesoft.mcpainter.drawing.filters.FilterManager;
+import org.primesoft.mcpainter.drawing.BlockColorCache;
 import org.primesoft.mcpainter.drawing.IColorMap;
 import org.primesoft.mcpainter.drawing.statue.PlayerStatueDescription;
 import org.primesoft.mcpainter.drawing.statue.StatueDescription;
@@ -73,12 +76,14 @@ public class MCPainterMain extends JavaPlugin {
     private static ConsoleCommandSender s_console;
     private static String s_prefix = null;
     private static final String s_logFormat = "%s %s";
+    private static final String COLOR_CACHE = "colors.cache";
     private Boolean m_isInitialized = false;
     private IColorMap m_colorMap = null;
     private IWorldEdit m_worldEdit = null;
     private MetricsLite m_metrics;
     private BlockPlacer m_blockPlacer;
     private TextureManager m_textureManager;
+    private BlockColorCache m_colorCache;
     private PaletteManager m_paletteManager;
     private final EventListener m_listener = new EventListener(this);
     private MapHelper m_mapHelper;
@@ -90,6 +95,7 @@ public class MCPainterMain extends JavaPlugin {
     private MultiBlockProvider m_blocksProvider;
     private ModStatueProvider m_statueProvider;
     private final HashMap<String, IColorMap> m_playerPaletes = new HashMap<String, IColorMap>();
+    private final HashMap<String, PlacementOrder> m_playerOrders = new HashMap<String, PlacementOrder>();
 
     public static String getPrefix() {
         return s_prefix;
@@ -103,6 +109,10 @@ public class MCPainterMain extends JavaPlugin {
         return m_textureManager;
     }
 
+    public BlockColorCache getColorCache() {
+        return m_colorCache;
+    }
+
     public BlocksHubIntegration getBlocksHub() {
         return m_blocksHub;
     }
@@ -139,6 +149,19 @@ public class MCPainterMain extends JavaPlugin {
         }
     }
 
+    /**
+     * Resume the player jobs stored in the journal
+     *
+     * @param player
+     */
+    public void resumeJobs(Player player) {
+        if (!m_isInitialized || m_worldEdit == null || !ConfigProvider.getJournal()) {
+            return;
+        }
+
+        JobJournal.resume(this, player, m_worldEdit);
+    }
+
     /**
      * Remove player configuration
      *
@@ -148,6 +171,9 @@ public class MCPainterMain extends JavaPlugin {
         synchronized (m_playerPaletes) {
             m_playerPaletes.remove(playerName.toLowerCase());
         }
+        synchronized (m_playerOrders) {
+            m_playerOrders.remove(playerName.toLowerCase());
+        }
     }
 
     @Override
@@ -216,6 +242,7 @@ public class MCPainterMain extends JavaPlugin {
     public void onDisable() {
         m_textureManager.dispose();
         m_blockPlacer.stop();
+        m_blocksHub.stop();
         log("Disabled");
     }
 
@@ -266,6 +293,9 @@ public class MCPainterMain extends JavaPlugin {
         if (name.equalsIgnoreCase(Commands.COMMAND_PALETTE)) {
             doPalette(player, args);
             return true;
+        } else if (name.equalsIgnoreCase(Commands.COMMAND_ORDER)) {
+            OrderCommand.Execte(this, player, args);
+            return true;
         } else if (name.equalsIgnoreCase(Commands.COMMAND_IMAGE)) {
             doImage(player, args);
             return true;
@@ -369,6 +399,9 @@ public class MCPainterMain extends JavaPlugin {
         initializePlayerStatue(dataFiles);
         initializePalettes();
 
+        m_colorCache = new BlockColorCache(new File(ConfigProvider.getPluginFolder(), COLOR_CACHE));
+        m_colorCache.load();
+
         IPalette pal = m_paletteManager.getPalette(ConfigProvider.getDefaultPalette());
         if (pal == null) {
             m_colorMap = null;
@@ -376,7 +409,7 @@ public class MCPainterMain extends JavaPlugin {
 
             return "Default palette " + ConfigProvider.getDefaultPalette() + " not found";
         } else {
-            m_colorMap = pal.createColorMap(this);
+            m_colorMap = pal.getColorMap(this);
         }
 
         m_isInitialized = m_worldEdit != null;
@@ -575,9 +608,38 @@ public class MCPainterMain extends JavaPlugin {
             }
 
             if (pal != null) {
-                m_playerPaletes.put(player, pal.createColorMap(this));
+                m_playerPaletes.put(player, pal.getColorMap(this));
+            }
+        }
+    }
+
+    /**
+     * Set the block placement order for player
+     *
+     * @param player
+     * @param order
+     */
+    public void setPlacementOrder(String player, PlacementOrder order) {
+        synchronized (m_playerOrders) {
+            m_playerOrders.put(player.toLowerCase(), order);
+        }
+    }
+
+    /**
+     * Get the block placement order for player
+     *
+     * @param player
+     * @return
+     */
+    public PlacementOrder getPlacementOrder(Player player) {
+        PlacementOrder result = null;
+        if (player != null) {
+            synchronized (m_playerOrders) {
+                result = m_playerOrders.get(player.getName().toLowerCase());
             }
         }
+
+        return result != null ? result : ConfigProvider.getPlacementOrder();
     }
 
     /**
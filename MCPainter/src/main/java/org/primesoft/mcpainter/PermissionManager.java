@@ -48,7 +48,8 @@ public class PermissionManager {
         SizeBypass, 
         Purge_Self, Purge_Other, Purge_All,
         Jobs_Self, Jobs_Other, Jobs_All, Filter,
-        Palette_list, Palette_change, Palette_changeOther
+        Palette_list, Palette_change, Palette_changeOther,
+        Order_change
     }
         
     
@@ -154,6 +155,8 @@ public class PermissionManager {
                 return s_prefix + "user.palette.change";
             case Palette_changeOther:
                 return s_prefix + "admin.palette.change";
+            case Order_change:
+                return s_prefix + "user.order";
         }
 
         return null;
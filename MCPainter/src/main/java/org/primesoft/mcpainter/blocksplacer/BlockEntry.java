@@ -46,6 +46,14 @@ public class BlockEntry extends BlockLogerEntry {
         m_newBlock = newBlock;
     }
 
+    public Vector getLocation() {
+        return m_location;
+    }
+
+    public BaseBlock getBlock() {
+        return m_newBlock;
+    }
+
     @Override
     public void execute() {
         Player p = getPlayer();
@@ -58,6 +66,11 @@ public class BlockEntry extends BlockLogerEntry {
         }
     }
 
+    @Override
+    public long getChunkKey() {
+        return ChunkKey.fromBlock(m_location.getX(), m_location.getZ());
+    }
+
     @Override
     public boolean canRemove() {
         return true;
@@ -24,13 +24,18 @@
 package org.primesoft.mcpainter.blocksplacer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.primesoft.mcpainter.configuration.ConfigProvider;
 import org.primesoft.mcpainter.MCPainterMain;
 import org.primesoft.mcpainter.utils.BaseBlock;
+import org.primesoft.mcpainter.utils.LongIntHashMap;
 import org.primesoft.mcpainter.utils.Vector;
 import org.primesoft.mcpainter.worldEdit.IEditSession;
 import org.primesoft.mcpainter.worldEdit.ILocalSession;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
@@ -46,13 +51,42 @@ public class BlockLoger {
      */
     private final Object m_mutex = new Object();
 
+    /**
+     * Keeps the flushed segments in order
+     */
+    private final Object m_flushMutex = new Object();
+
     private final Player m_player;
-    private final List<BlockLogerEntry> m_blocks;
+    /**
+     * Segments waiting for flush, all but the last one are full
+     */
+    private final List<BlockSegment> m_segments;
+    /**
+     * Number of entries waiting for flush
+     */
+    private int m_count;
+    /**
+     * Index of the last write for every position since the last barrier
+     */
+    private final LongIntHashMap m_lastWrite;
+    private final SegmentSorter m_sorter;
     private final ILocalSession m_session;
     private final IEditSession m_editSession;
     private final World m_world;
     private final MCPainterMain m_mainPlugin;
     private final BlockPlacer m_blocksPlacer;
+    private final BlockPalette m_palette;
+    private final WorldDiff m_worldDiff;
+    /**
+     * The journal and the job are created by the first flush
+     */
+    private volatile JobJournal m_journal;
+    private volatile PlacerJob m_job;
+    private final PlacementOrder m_order;
+    /**
+     * Packed player position when the job was created
+     */
+    private final long m_origin;
 
     public World getWorld() {
         return m_world;
@@ -64,10 +98,43 @@ public class BlockLoger {
 
     public BlockLogerEntry[] getEntries() {
         synchronized (m_mutex) {
-            return m_blocks.toArray(new BlockLogerEntry[0]);
+            BlockLogerEntry[] result = new BlockLogerEntry[m_count];
+            int pos = 0;
+            for (BlockSegment segment : m_segments) {
+                for (int i = 0; i < segment.size(); i++) {
+                    result[pos++] = segment.get(i);
+                }
+            }
+            return result;
         }
     }
 
+    /**
+     * The block placer job handle
+     *
+     * @return the job or null if nothing was flushed yet
+     */
+    public PlacerJob getJob() {
+        return m_job;
+    }
+
+    JobJournal getJournal() {
+        return m_journal;
+    }
+
+    /**
+     * The job placement order
+     *
+     * @return
+     */
+    public PlacementOrder getOrder() {
+        return m_order;
+    }
+
+    public BlockPalette getPalette() {
+        return m_palette;
+    }
+
     public IEditSession getEditSession() {
         return m_editSession;
     }
@@ -78,13 +145,20 @@ public class BlockLoger {
 
     public BlockLoger(Player player, ILocalSession session, IEditSession eSession,
             MCPainterMain main) {
-        m_blocks = new ArrayList<>();
+        m_segments = new ArrayList<>();
+        m_lastWrite = new LongIntHashMap();
+        m_sorter = new SegmentSorter();
         m_player = player;
         m_session = session;
         m_editSession = eSession;
         m_world = m_player.getWorld();
         m_mainPlugin = main;
         m_blocksPlacer = main.getBlockPlacer();
+        m_order = main.getPlacementOrder(player);
+        Location l = m_player.getLocation();
+        m_origin = PackedPosition.pack(l.getBlockX(), l.getBlockY(), l.getBlockZ());
+        m_palette = new BlockPalette();
+        m_worldDiff = ConfigProvider.getSkipUnchanged() ? new WorldDiff(main, m_world) : null;
     }
 
     public void logChange(IChange command) {
@@ -94,7 +168,8 @@ public class BlockLoger {
         }
 
         synchronized (m_mutex) {
-            m_blocks.add(new ChangeEntry(this, command));
+            m_lastWrite.clear();
+            addSpecial(new ChangeEntry(this, command));
         }
         checkFlush();
 
@@ -104,42 +179,195 @@ public class BlockLoger {
         if (!m_mainPlugin.getBlocksHub().canPlace(m_player, m_world, location)) {
             return;
         }
+        long pos = PackedPosition.pack(location);
+        short blockIdx = m_palette.indexOf(block);
         synchronized (m_mutex) {
-            m_blocks.add(new BlockEntry(this, location, block));
+            int idx = m_lastWrite.get(pos, -1);
+            if (idx >= 0) {
+                BlockSegment segment = m_segments.get(idx / BlockSegment.CAPACITY);
+                if (blockIdx != BlockSegment.SPECIAL) {
+                    segment.setBlock(idx % BlockSegment.CAPACITY, pos, blockIdx);
+                } else {
+                    segment.setSpecial(idx % BlockSegment.CAPACITY, new BlockEntry(this, location, block));
+                }
+                return;
+            }
+
+            m_lastWrite.put(pos, m_count);
+            if (blockIdx != BlockSegment.SPECIAL) {
+                getSegment().addBlock(pos, blockIdx);
+                m_count++;
+            } else {
+                addSpecial(new BlockEntry(this, location, block));
+            }
         }
         checkFlush();
     }
     public void logEndSession() {
         synchronized (m_mutex) {
-            m_blocks.add(new FlushEntry(this));
+            m_lastWrite.clear();
+            addSpecial(new FlushEntry(this));
         }
         checkFlush();
     }
 
     public void logMessage(String msg) {
         synchronized (m_mutex) {
-            m_blocks.add(new MessageEntry(this, msg));
+            m_lastWrite.clear();
+            addSpecial(new MessageEntry(this, msg));
         }
         checkFlush();
     }
 
+    /**
+     * Get the segment to write to (must be called inside the mutex)
+     *
+     * @return segment with free space
+     */
+    private BlockSegment getSegment() {
+        BlockSegment segment = m_segments.isEmpty() ? null : m_segments.get(m_segments.size() - 1);
+        if (segment == null || segment.isFull()) {
+            segment = m_blocksPlacer.acquireSegment(this);
+            m_segments.add(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Add entry stored as object (must be called inside the mutex)
+     *
+     * @param entry the entry
+     */
+    private void addSpecial(BlockLogerEntry entry) {
+        getSegment().addSpecial(entry);
+        m_count++;
+    }
+
+    /**
+     * Flush the entries when the hard limit is reached. When the player queue
+     * is full the drawing (async) thread waits until the queue has free
+     * capacity. The server thread is never blocked, the block placer runs on
+     * it.
+     */
     private void checkFlush() {
-        boolean shuldFlush;
         synchronized (m_mutex) {
-            shuldFlush = m_blocks.size() > ConfigProvider.getQueueHardLimit();
+            if (m_count <= ConfigProvider.getQueueHardLimit()) {
+                return;
+            }
+        }
+
+        CompletableFuture<Void> capacity = flush();
+        if (capacity.isDone() || Bukkit.isPrimaryThread()) {
+            return;
+        }
+
+        MCPainterMain.say(m_player, "Queue size limit reached. Block placing postponed...");
+        capacity.join();
+        MCPainterMain.say(m_player, "Block placing resumed.");
+    }
+
+    /**
+     * Queue the physics update of the placed blocks, entries are grouped by
+     * chunk and split at {@link PhysicsEntry#MAX_SIZE} (block placer only)
+     *
+     * @param positions packed positions of the placed blocks, may be null
+     */
+    void deferPhysics(long[] positions) {
+        if (positions == null || positions.length == 0) {
+            return;
+        }
+
+        Map<Long, PhysicsEntry> chunks = new HashMap<>();
+        List<PhysicsEntry> entries = new ArrayList<>();
+        for (long pos : positions) {
+            long chunk = PackedPosition.getChunkKey(pos);
+            PhysicsEntry entry = chunks.get(chunk);
+            if (entry == null || entry.isFull()) {
+                entry = new PhysicsEntry(this, chunk);
+                chunks.put(chunk, entry);
+                entries.add(entry);
+            }
+            entry.add(pos);
+        }
+
+        List<BlockSegment> segments = new ArrayList<>();
+        BlockSegment segment = null;
+        for (PhysicsEntry entry : entries) {
+            if (segment == null || segment.isFull()) {
+                segment = m_blocksPlacer.acquireSegment(this);
+                segments.add(segment);
+            }
+            segment.addSpecial(entry);
+        }
+        m_blocksPlacer.addSegments(segments, m_job);
+    }
+
+    /**
+     * Drop the entries that were not flushed, used when the drawing ends
+     * without {@link #logEndSession()}. When some entries were already
+     * flushed the job is cancelled and the edit session is finished.
+     */
+    public void discard() {
+        synchronized (m_mutex) {
+            for (BlockSegment segment : m_segments) {
+                m_blocksPlacer.releaseSegment(segment);
+            }
+            m_segments.clear();
+            m_lastWrite.clear();
+            m_count = 0;
+
+            if (m_job == null) {
+                return;
+            }
+            m_job.cancel();
+            addSpecial(new FlushEntry(this));
         }
+        flush();
+    }
 
-        if (shuldFlush) {
-            flush();
+    /**
+     * Send the logged entries to the block placer, the segments are handed
+     * over without copying
+     *
+     * @return future completed when the player queue has free capacity
+     */
+    public CompletableFuture<Void> flush() {
+        synchronized (m_flushMutex) {
+            return flushSegments();
         }
     }
 
-    public void flush() {
-        BlockLogerEntry[] events;
+    /**
+     * Send the logged entries to the block placer (must be called inside the
+     * flush mutex)
+     *
+     * @return future completed when the player queue has free capacity
+     */
+    private CompletableFuture<Void> flushSegments() {
+        List<BlockSegment> segments;
         synchronized (m_mutex) {
-            events = m_blocks.toArray(new BlockLogerEntry[0]);
-            m_blocks.clear();
+            segments = new ArrayList<>(m_segments);
+            m_segments.clear();
+            m_lastWrite.clear();
+            m_count = 0;
+
+            if (segments.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (m_job == null) {
+                m_job = m_blocksPlacer.createJob(this, m_player);
+                m_journal = ConfigProvider.getJournal() ? JobJournal.create(m_mainPlugin, this, m_blocksPlacer) : null;
+            }
+
+            m_sorter.sort(segments, m_order, m_origin);
+        }
+
+        if (m_worldDiff != null) {
+            m_worldDiff.filter(segments, m_blocksPlacer.getQueuedEntries() - m_job.size());
+        }
+        if (m_journal != null) {
+            return m_journal.append(segments);
         }
-        m_blocksPlacer.addTasks(events, getPlayer());
+        return m_blocksPlacer.addSegments(segments, m_job);
     }
 }
@@ -23,6 +23,7 @@
  */
 package org.primesoft.mcpainter.blocksplacer;
 
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
 
@@ -43,6 +44,25 @@ public abstract class BlockLogerEntry {
         return m_loger.getPlayer();
     }
 
+    /**
+     * Get the world the entry is placed in
+     *
+     * @return the world or null if not bound to a world
+     */
+    public World getWorld() {
+        return m_loger != null ? m_loger.getWorld() : null;
+    }
+
+    /**
+     * Get the chunk the entry is placed in. Entries without a chunk are
+     * treated as ordering barriers.
+     *
+     * @return packed chunk key or ChunkKey.NONE
+     */
+    public long getChunkKey() {
+        return ChunkKey.NONE;
+    }
+
     public BlockLogerEntry(BlockLoger loger) {
         m_loger = loger;
     }
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.bukkit.block.data.BlockData;
+import org.primesoft.mcpainter.utils.BaseBlock;
+
+/**
+ * Per job block palette, maps the placed blocks to short indices.
+ *
+ * @author SBPrime
+ */
+public class BlockPalette {
+
+    /**
+     * The MTA mutex
+     */
+    private final Object m_mutex = new Object();
+
+    /**
+     * Block to index map (producer side)
+     */
+    private final Map<BlockData, Short> m_indices = new HashMap<>();
+
+    /**
+     * The palette blocks, republished on every change so the placer can read
+     * it without locking
+     */
+    private volatile BaseBlock[] m_blocks = new BaseBlock[16];
+
+    private int m_size;
+
+    /**
+     * Get the palette index of the block, the block is added to the palette
+     * if needed.
+     *
+     * @param block the block
+     * @return block index or -1 if the palette is full
+     */
+    public short indexOf(BaseBlock block) {
+        synchronized (m_mutex) {
+            Short idx = m_indices.get(block.Data);
+            if (idx != null) {
+                return idx;
+            }
+
+            if (m_size > Short.MAX_VALUE) {
+                return -1;
+            }
+
+            BaseBlock[] blocks = m_blocks;
+            if (m_size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, Math.min(blocks.length * 2, Short.MAX_VALUE + 1));
+            }
+            blocks[m_size] = block;
+            m_blocks = blocks;
+
+            short result = (short) m_size;
+            m_indices.put(block.Data, result);
+            m_size++;
+            return result;
+        }
+    }
+
+    /**
+     * Get the number of blocks in the palette
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (m_mutex) {
+            return m_size;
+        }
+    }
+
+    /**
+     * Get the block for index
+     *
+     * @param idx block index
+     * @return the block
+     */
+    public BaseBlock get(short idx) {
+        return m_blocks[idx];
+    }
+}
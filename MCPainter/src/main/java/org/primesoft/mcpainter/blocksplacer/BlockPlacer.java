@@ -23,13 +23,21 @@
  */
 package org.primesoft.mcpainter.blocksplacer;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import org.primesoft.mcpainter.configuration.ConfigProvider;
 import org.primesoft.mcpainter.MCPainterMain;
+import org.primesoft.mcpainter.BlocksHubIntegration;
+import org.primesoft.mcpainter.worldEdit.IEditSession;
+import org.bukkit.Chunk;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitScheduler;
 import org.bukkit.scheduler.BukkitTask;
@@ -40,10 +48,29 @@ import org.bukkit.scheduler.BukkitTask;
  */
 public class BlockPlacer implements Runnable {
     /**
-     * The MTA mutex
+     * Number of entries taken when the entry cost is not known yet
      */
-    private final Object m_mutex = new Object();
+    private static final int FIRST_ROUND = 16;
+    /**
+     * Maximum number of entries taken in one budget round
+     */
+    private static final int MAX_ROUND = 4096;
+    /**
+     * Entry cost moving average smoothing factor
+     */
+    private static final int COST_SMOOTHING = 8;
+    /**
+     * Orders entries by world and chunk
+     */
+    private static final Comparator<BlockLogerEntry> CHUNK_ORDER = (a, b) -> {
+        int result = compareWorlds(a.getWorld(), b.getWorld());
+        return result != 0 ? result : Long.compare(a.getChunkKey(), b.getChunkKey());
+    };
 
+    /**
+     * The blocks hub (block logging)
+     */
+    private final BlocksHubIntegration m_blocksHub;
     /**
      * Bukkit scheduler
      */
@@ -55,11 +82,44 @@ public class BlockPlacer implements Runnable {
     /**
      * Logged events queue (per player)
      */
-    private final HashMap<String, Queue<BlockLogerEntry>> m_blocks;
+    private final ConcurrentMap<String, PlayerQueue> m_blocks;
+    /**
+     * The queued jobs by id
+     */
+    private final ConcurrentMap<Integer, PlacerJob> m_jobs;
+    /**
+     * Queues that became active, waiting to be picked up by the placer
+     */
+    private final Queue<PlayerQueue> m_activated;
+    /**
+     * Queues served by the placer (accessed only by the placer task)
+     */
+    private final List<PlayerQueue> m_active;
+    /**
+     * Round robin position in the active queues
+     */
+    private int m_activePos;
+    /**
+     * The free segments
+     */
+    private final SegmentPool m_pool;
+    /**
+     * Reusable entries buffer (accessed only by the placer task)
+     */
+    private BlockLogerEntry[] m_buffer;
+    /**
+     * Journals of the processed jobs (accessed only by the placer task)
+     */
+    private final List<JobJournal> m_journals;
+    /**
+     * Edit sessions used by the processed entries (accessed only by the
+     * placer task)
+     */
+    private final List<IEditSession> m_sessions;
     /**
      * Should block places shut down
      */
-    private boolean m_shutdown;
+    private volatile boolean m_shutdown;
     /**
      * queue soft size
      */
@@ -68,6 +128,14 @@ public class BlockPlacer implements Runnable {
      * queue hard size
      */
     private final int m_queueHard;
+    /**
+     * Measured average time (ns) needed to place one entry
+     */
+    private volatile long m_entryCost;
+    /**
+     * Unused (or overused) time budget from the previous run
+     */
+    private long m_budgetCarry;
 
     /**
      * Initialize new instance of the block placer
@@ -75,10 +143,18 @@ public class BlockPlacer implements Runnable {
      * @param plugin parent
      */
     public BlockPlacer(MCPainterMain plugin) {
-        m_blocks = new HashMap<>();
+        m_blocks = new ConcurrentHashMap<>();
+        m_jobs = new ConcurrentHashMap<>();
+        m_activated = new ConcurrentLinkedQueue<>();
+        m_active = new ArrayList<>();
+        m_journals = new ArrayList<>();
+        m_sessions = new ArrayList<>();
+        m_buffer = new BlockLogerEntry[Math.max(ConfigProvider.getBlockCount(), FIRST_ROUND)];
         m_scheduler = plugin.getServer().getScheduler();
+        m_blocksHub = plugin.getBlocksHub();
         m_queueHard = ConfigProvider.getQueueHardLimit();
         m_queueSoft = ConfigProvider.getQueueSoftLimit();
+        m_pool = new SegmentPool(Math.max(16, 2 * m_queueHard / BlockSegment.CAPACITY));
         m_task = m_scheduler.runTaskTimer(plugin, this,
                 ConfigProvider.getInterval(), ConfigProvider.getInterval());
     }
@@ -88,36 +164,125 @@ public class BlockPlacer implements Runnable {
      */
     @Override
     public void run() {
-        List<BlockLogerEntry> entries = new ArrayList<BlockLogerEntry>(ConfigProvider.getBlockCount());
-        synchronized (m_mutex) {
-            String[] keys = m_blocks.keySet().toArray(new String[0]);
-            int keyPos = 0;
-            boolean added = keys.length > 0;
-            final int blockCnt = ConfigProvider.getBlockCount();
-            for (int i = 0; i < blockCnt && added; i++) {
-                added = false;
-
-                Queue<BlockLogerEntry> queue = m_blocks.get(keys[keyPos]);
-                if (queue != null) {
-                    if (!queue.isEmpty()) {
-                        entries.add(queue.poll());
-                        added = true;
-                    }
-                    if (queue.isEmpty()) {
-                        m_blocks.remove(keys[keyPos]);
-                    }
-                }
-                keyPos = (keyPos + 1) % keys.length;
+        int logSpace = m_blocksHub.getLogSpace();
+        if (logSpace <= 0) {
+            m_budgetCarry = 0;
+            return;
+        }
+
+        final long budget = ConfigProvider.getTimeBudget();
+        if (budget <= 0) {
+            process(pollEntries(Math.min(ConfigProvider.getBlockCount(), logSpace)));
+            return;
+        }
+
+        final long available = budget + m_budgetCarry;
+        long spent = 0;
+        boolean drained = false;
+        while (spent < available) {
+            final long cost = m_entryCost;
+            final long left = available - spent;
+            if (spent > 0 && cost > left) {
+                break;
             }
 
-            if (!added && m_shutdown) {
-                stop();
+            if (logSpace <= 0) {
+                drained = true;
+                break;
+            }
+
+            int count = cost > 0 ? (int) Math.max(1, Math.min(MAX_ROUND, left / cost)) : FIRST_ROUND;
+            count = Math.min(count, logSpace);
+            int polled = pollEntries(count);
+            if (polled == 0) {
+                drained = true;
+                break;
+            }
+            logSpace -= polled;
+
+            long roundStart = System.nanoTime();
+            process(polled);
+            long roundTime = System.nanoTime() - roundStart;
+
+            spent += roundTime;
+            updateEntryCost(roundTime / polled);
+            if (polled < count) {
+                drained = true;
+                break;
             }
         }
 
-        for (BlockLogerEntry entry : entries) {
-            process(entry);
+        m_budgetCarry = drained ? 0 : Math.max(-budget, Math.min(budget, available - spent));
+    }
+
+    /**
+     * Get the measured average time needed to place one entry
+     *
+     * @return time in nanoseconds, 0 if not measured yet
+     */
+    public long getEntryCost() {
+        return m_entryCost;
+    }
+
+    /**
+     * Update the moving average of the entry cost
+     *
+     * @param cost measured cost of one entry
+     */
+    private void updateEntryCost(long cost) {
+        long current = m_entryCost;
+        m_entryCost = current <= 0 ? Math.max(1, cost)
+                : Math.max(1, current + (cost - current) / COST_SMOOTHING);
+    }
+
+    /**
+     * Take the entries to place from the player queues (round robin)
+     * into the entries buffer
+     *
+     * @param blockCnt maximum number of entries
+     * @return number of entries taken
+     */
+    private int pollEntries(final int blockCnt) {
+        PlayerQueue queue;
+        while ((queue = m_activated.poll()) != null) {
+            m_active.add(queue);
         }
+
+        if (m_buffer.length < blockCnt) {
+            m_buffer = new BlockLogerEntry[blockCnt];
+        }
+
+        int cnt = 0;
+        while (cnt < blockCnt && !m_active.isEmpty()) {
+            if (m_activePos >= m_active.size()) {
+                m_activePos = 0;
+            }
+
+            queue = m_active.get(m_activePos);
+            BlockLogerEntry entry = queue.poll();
+            if (entry != null) {
+                m_buffer[cnt++] = entry;
+                m_activePos++;
+            } else {
+                queue.deactivate();
+                if (queue.isEmpty() || !queue.markActive()) {
+                    int last = m_active.size() - 1;
+                    m_active.set(m_activePos, m_active.get(last));
+                    m_active.remove(last);
+                    queue.signalCapacity(m_queueSoft);
+                }
+            }
+        }
+
+        for (PlayerQueue q : m_active) {
+            q.signalCapacity(m_queueSoft);
+        }
+
+        if (cnt == 0 && m_shutdown) {
+            stop();
+        }
+
+        return cnt;
     }
 
     /**
@@ -125,6 +290,10 @@ public class BlockPlacer implements Runnable {
      */
     public void queueStop() {
         m_shutdown = true;
+
+        for (PlayerQueue queue : m_blocks.values()) {
+            queue.signalCapacity(Integer.MAX_VALUE);
+        }
     }
 
     /**
@@ -139,69 +308,171 @@ public class BlockPlacer implements Runnable {
      *
      * @param events Event to log
      * @param player
+     * @return future completed when the player queue is below the soft limit
      */
-    public void addTasks(BlockLogerEntry[] events, Player player) {
-        Queue<BlockLogerEntry> queue = null;
-        final String name = player.getName();
-        synchronized (m_mutex) {
-            for (BlockLogerEntry entry : events) {
-                if (queue == null) {
-                    if (!m_blocks.containsKey(name)) {
-                        queue = new ArrayDeque<BlockLogerEntry>();
-                        m_blocks.put(name, queue);
-                    } else {
-                        queue = m_blocks.get(name);
-                    }
-                }
-                queue.add(entry);
+    public CompletableFuture<Void> addTasks(BlockLogerEntry[] events, Player player) {
+        PlacerJob job = createJob(player);
+        CompletableFuture<Void> result = addTasks(events, job);
+        closeJob(job);
+        return result;
+    }
+
+    /**
+     * Add tasks to a job created by {@link #createJob(Player)}, the entries
+     * between the ordering barriers are sorted by chunk
+     *
+     * @param events Event to log
+     * @param job the job
+     * @return future completed when the player queue is below the soft limit
+     */
+    public CompletableFuture<Void> addTasks(BlockLogerEntry[] events, PlacerJob job) {
+        sortByChunk(events, events.length);
+
+        List<BlockSegment> segments = new ArrayList<>();
+        BlockSegment segment = null;
+        for (BlockLogerEntry entry : events) {
+            if (segment == null || !segment.add(entry)) {
+                segment = m_pool.acquire(entry.getLoger());
+                segment.add(entry);
+                segments.add(segment);
             }
         }
 
-        if (queue.size() > m_queueHard) {
-            MCPainterMain.say(player, "Queue size limit reached. Block placing postponed...");
-            while (queue.size() > m_queueSoft && !m_shutdown) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ex) {
-                }
-            }
-            MCPainterMain.say(player, "Block placing resumed.");
+        return addSegments(segments, job);
+    }
+
+    /**
+     * Create new job without an owner, the tasks are added using
+     * {@link #addTasks(BlockLogerEntry[], PlacerJob)}
+     *
+     * @param player the player
+     * @return the job handle
+     */
+    public PlacerJob createJob(Player player) {
+        return createJob(null, player);
+    }
+
+    /**
+     * No more tasks are added to the job
+     *
+     * @param job
+     */
+    public void closeJob(PlacerJob job) {
+        job.close();
+    }
+
+    /**
+     * Create new job in the player queue
+     *
+     * @param loger the job owner, may be null
+     * @param player the player
+     * @return the job handle
+     */
+    PlacerJob createJob(BlockLoger loger, Player player) {
+        PlacerJob job = m_blocks.computeIfAbsent(player.getName(), n -> new PlayerQueue(n, this))
+                .createJob(loger);
+        m_jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * The job is finished
+     *
+     * @param job
+     */
+    void removeJob(PlacerJob job) {
+        m_jobs.remove(job.getId());
+    }
+
+    /**
+     * Add the queue to the active queues
+     *
+     * @param queue
+     */
+    void activate(PlayerQueue queue) {
+        m_activated.add(queue);
+    }
+
+    /**
+     * Get the job by id
+     *
+     * @param id the job id
+     * @return the job or null if not found
+     */
+    public PlacerJob getJob(int id) {
+        return m_jobs.get(id);
+    }
+
+    /**
+     * Get the player jobs
+     *
+     * @param player player login
+     * @return the jobs (empty if none)
+     */
+    public List<PlacerJob> getJobs(String player) {
+        PlayerQueue queue = m_blocks.get(player);
+        return queue != null ? queue.getJobs() : new ArrayList<>();
+    }
+
+    /**
+     * Get a free queue segment
+     *
+     * @param loger the segment owner
+     * @return the segment
+     */
+    BlockSegment acquireSegment(BlockLoger loger) {
+        return m_pool.acquire(loger);
+    }
+
+    /**
+     * Return unused segment to the pool
+     *
+     * @param segment the segment
+     */
+    void releaseSegment(BlockSegment segment) {
+        m_pool.release(segment);
+    }
+
+    /**
+     * Add filled segments to the job, the segments are owned by the block
+     * placer from now on
+     *
+     * @param segments the segments
+     * @param job the job
+     * @return future completed when the player queue is below the soft limit
+     */
+    CompletableFuture<Void> addSegments(List<BlockSegment> segments, PlacerJob job) {
+        PlayerQueue queue = job.getQueue();
+        for (BlockSegment segment : segments) {
+            job.add(segment);
+        }
+        queue.activate();
+
+        if (m_shutdown || queue.runnableSize() <= m_queueHard) {
+            return CompletableFuture.completedFuture(null);
         }
+
+        return queue.awaitCapacity(m_queueSoft);
     }
 
     /**
-     * Remove all entries for player
+     * Cancel all jobs of the player
      *
      * @param player
      */
     public void purge(String player) {
-        synchronized (m_mutex) {
-            if (m_blocks.containsKey(player)) {
-                BlockLogerEntry[] entries = m_blocks.get(player).toArray(new BlockLogerEntry[0]);
-                m_blocks.remove(player);
-
-                Queue<BlockLogerEntry> queue = new ArrayDeque<BlockLogerEntry>();
-                for (BlockLogerEntry e : entries) {
-                    if (!e.canRemove()) {
-                        queue.add(e);
-                    }
-                }
-
-                if (!queue.isEmpty()) {
-                    m_blocks.put(player, queue);
-                }
-            }
+        PlayerQueue queue = m_blocks.get(player);
+        if (queue != null) {
+            queue.purge();
         }
     }
 
     /**
-     * Remove all entries
+     * Cancel all jobs
      */
     public void purgeAll() {
-        synchronized (m_mutex) {
-            for (String user : getAllPlayers()) {
-                purge(user);
-            }
+        for (PlayerQueue queue : m_blocks.values()) {
+            queue.purge();
         }
     }
 
@@ -211,9 +482,26 @@ public class BlockPlacer implements Runnable {
      * @return players list
      */
     public String[] getAllPlayers() {
-        synchronized (m_mutex) {
-            return m_blocks.keySet().toArray(new String[0]);
+        List<String> result = new ArrayList<>();
+        for (PlayerQueue queue : m_blocks.values()) {
+            if (queue.size() > 0) {
+                result.add(queue.getPlayer());
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * Gets the number of events queued by all players
+     *
+     * @return number of stored events
+     */
+    public int getQueuedEntries() {
+        int result = 0;
+        for (PlayerQueue queue : m_blocks.values()) {
+            result += queue.size();
         }
+        return result;
     }
 
     /**
@@ -223,13 +511,135 @@ public class BlockPlacer implements Runnable {
      * @return number of stored events
      */
     public int getPlayerEvents(String player) {
-        synchronized (m_mutex) {
-            if (m_blocks.containsKey(player)) {
-                return m_blocks.get(player).size();
+        PlayerQueue queue = m_blocks.get(player);
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * Stable sort the entries by chunk. Entries that are not bound to a chunk
+     * (flush, messages) and entries of jobs that are not placed chunk by chunk
+     * are barriers, nothing is moved across them.
+     *
+     * @param entries entries to sort
+     * @param count number of entries to sort
+     */
+    private static void sortByChunk(BlockLogerEntry[] entries, int count) {
+        int start = 0;
+        for (int i = 0; i <= count; i++) {
+            if (i == count || entries[i] == null
+                    || entries[i].getChunkKey() == ChunkKey.NONE
+                    || !isChunkOrdered(entries[i].getLoger())) {
+                if (i - start > 1) {
+                    Arrays.sort(entries, start, i, CHUNK_ORDER);
+                }
+                start = i + 1;
             }
+        }
+    }
 
+    /**
+     * Compare the worlds by their UID, entries without a world go first
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    private static int compareWorlds(World a, World b) {
+        if (a == b) {
             return 0;
         }
+        if (a == null || b == null) {
+            return a == null ? -1 : 1;
+        }
+        return a.getUID().compareTo(b.getUID());
+    }
+
+    /**
+     * Can the job entries be reordered by chunk
+     *
+     * @param loger the job owner, null for undo entries
+     * @return
+     */
+    private static boolean isChunkOrdered(BlockLoger loger) {
+        if (loger == null) {
+            return true;
+        }
+
+        PlacementOrder order = loger.getOrder();
+        return order == PlacementOrder.Chunk || order == PlacementOrder.Morton;
+    }
+
+    /**
+     * Process logged events from the entries buffer chunk by chunk
+     *
+     * @param count number of events to process
+     */
+    private void process(int count) {
+        final BlockLogerEntry[] entries = m_buffer;
+        sortByChunk(entries, count);
+
+        World world = null;
+        long chunkKey = ChunkKey.NONE;
+        for (int i = 0; i < count; i++) {
+            BlockLogerEntry entry = entries[i];
+            entries[i] = null;
+            if (entry == null) {
+                continue;
+            }
+
+            long key = entry.getChunkKey();
+            World w = entry.getWorld();
+            if (key != ChunkKey.NONE && w != null && (key != chunkKey || w != world)) {
+                world = w;
+                chunkKey = key;
+                loadChunk(world, chunkKey);
+            }
+
+            process(entry);
+
+            BlockLoger loger = entry.getLoger();
+            IEditSession session = loger != null ? loger.getEditSession() : null;
+            if (session != null && !m_sessions.contains(session)) {
+                m_sessions.add(session);
+            }
+
+            JobJournal journal = loger != null ? loger.getJournal() : null;
+            if (journal != null) {
+                journal.executed(entry);
+                if (!m_journals.contains(journal)) {
+                    m_journals.add(journal);
+                }
+            }
+        }
+
+        for (IEditSession session : m_sessions) {
+            session.flush();
+        }
+        m_sessions.clear();
+
+        for (JobJournal journal : m_journals) {
+            journal.commitProgress();
+        }
+        m_journals.clear();
+    }
+
+    /**
+     * Make sure the chunk is loaded
+     *
+     * @param world the world
+     * @param chunkKey packed chunk key
+     */
+    private static void loadChunk(World world, long chunkKey) {
+        int cx = ChunkKey.getX(chunkKey);
+        int cz = ChunkKey.getZ(chunkKey);
+        if (world.isChunkLoaded(cx, cz)) {
+            return;
+        }
+
+        Chunk chunk = world.getChunkAt(cx, cz);
+        if (!chunk.isLoaded()) {
+            chunk.load();
+        }
     }
 
     /**
@@ -0,0 +1,290 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.function.IntPredicate;
+import org.primesoft.mcpainter.utils.BaseBlock;
+import org.primesoft.mcpainter.utils.Vector;
+
+/**
+ * Fixed size segment of a player queue. Blocks are stored as packed positions
+ * and palette indices, other entries are stored as objects. The segment is
+ * filled by the producer and handed over to the block placer, after that only
+ * the block placer uses it. Segments are pooled, see {@link SegmentPool}.
+ *
+ * @author SBPrime
+ */
+class BlockSegment {
+
+    /**
+     * Number of entries in a segment
+     */
+    public static final int CAPACITY = 1024;
+
+    /**
+     * Palette index used for entries stored as objects
+     */
+    static final short SPECIAL = -1;
+
+    private final long[] m_positions = new long[CAPACITY];
+
+    private final short[] m_blocks = new short[CAPACITY];
+
+    /**
+     * Entries that are not plain blocks (allocated when needed)
+     */
+    private BlockLogerEntry[] m_special;
+
+    /**
+     * The segment owner
+     */
+    private BlockLoger m_loger;
+
+    /**
+     * Number of entries in the segment
+     */
+    private int m_size;
+
+    /**
+     * The next entry to read
+     */
+    private int m_pos;
+
+    /**
+     * Prepare the segment for a new owner
+     *
+     * @param loger the segment owner
+     */
+    void reset(BlockLoger loger) {
+        if (m_special != null) {
+            for (int i = m_pos; i < m_size; i++) {
+                m_special[i] = null;
+            }
+        }
+
+        m_loger = loger;
+        m_size = 0;
+        m_pos = 0;
+    }
+
+    public BlockLoger getLoger() {
+        return m_loger;
+    }
+
+    /**
+     * Number of unread entries
+     *
+     * @return
+     */
+    public int size() {
+        return m_size - m_pos;
+    }
+
+    public boolean isFull() {
+        return m_size >= CAPACITY;
+    }
+
+    /**
+     * Add entry to the segment
+     *
+     * @param entry the entry
+     * @return false if the segment is full or the entry belongs to a different
+     * loger
+     */
+    public boolean add(BlockLogerEntry entry) {
+        if (m_size >= CAPACITY || entry.getLoger() != m_loger) {
+            return false;
+        }
+
+        if (entry instanceof BlockEntry && m_loger != null) {
+            BlockEntry block = (BlockEntry) entry;
+            short idx = m_loger.getPalette().indexOf(block.getBlock());
+            if (idx != SPECIAL) {
+                addBlock(PackedPosition.pack(block.getLocation()), idx);
+                return true;
+            }
+        }
+
+        addSpecial(entry);
+        return true;
+    }
+
+    /**
+     * Add block to the segment (the segment must not be full)
+     *
+     * @param pos packed position
+     * @param block palette index
+     * @return entry index
+     */
+    public int addBlock(long pos, short block) {
+        m_positions[m_size] = pos;
+        m_blocks[m_size] = block;
+        return m_size++;
+    }
+
+    /**
+     * Add entry stored as object (the segment must not be full)
+     *
+     * @param entry the entry
+     * @return entry index
+     */
+    public int addSpecial(BlockLogerEntry entry) {
+        if (m_special == null) {
+            m_special = new BlockLogerEntry[CAPACITY];
+        }
+        m_blocks[m_size] = SPECIAL;
+        m_special[m_size] = entry;
+        return m_size++;
+    }
+
+    /**
+     * Replace the entry with a block
+     *
+     * @param idx entry index
+     * @param pos packed position
+     * @param block palette index
+     */
+    public void setBlock(int idx, long pos, short block) {
+        if (m_blocks[idx] == SPECIAL) {
+            m_special[idx] = null;
+        }
+        m_positions[idx] = pos;
+        m_blocks[idx] = block;
+    }
+
+    /**
+     * Replace the entry with an object entry
+     *
+     * @param idx entry index
+     * @param entry the entry
+     */
+    public void setSpecial(int idx, BlockLogerEntry entry) {
+        if (m_special == null) {
+            m_special = new BlockLogerEntry[CAPACITY];
+        }
+        m_blocks[idx] = SPECIAL;
+        m_special[idx] = entry;
+    }
+
+    public boolean isBlock(int idx) {
+        return m_blocks[idx] != SPECIAL;
+    }
+
+    public long getPosition(int idx) {
+        return m_positions[idx];
+    }
+
+    public short getBlockIndex(int idx) {
+        return m_blocks[idx];
+    }
+
+    /**
+     * Get the block stored at index
+     *
+     * @param idx entry index
+     * @return the block
+     */
+    public BaseBlock getBlock(int idx) {
+        return m_loger.getPalette().get(m_blocks[idx]);
+    }
+
+    /**
+     * Get the entry at index, blocks are returned as new views
+     *
+     * @param idx entry index
+     * @return the entry
+     */
+    public BlockLogerEntry get(int idx) {
+        final short block = m_blocks[idx];
+        if (block == SPECIAL) {
+            return m_special[idx];
+        }
+
+        long pos = m_positions[idx];
+        return new BlockEntry(m_loger,
+                new Vector(PackedPosition.getX(pos), PackedPosition.getY(pos), PackedPosition.getZ(pos)),
+                m_loger.getPalette().get(block));
+    }
+
+    /**
+     * Get the next entry
+     *
+     * @return the entry or null if all entries were read
+     */
+    public BlockLogerEntry poll() {
+        if (m_pos >= m_size) {
+            return null;
+        }
+
+        final int idx = m_pos++;
+        BlockLogerEntry result = get(idx);
+        if (m_blocks[idx] == SPECIAL) {
+            m_special[idx] = null;
+        }
+        return result;
+    }
+
+    /**
+     * Remove all unread entries that can be removed
+     *
+     * @return number of removed entries
+     */
+    public int purge() {
+        return removeIf(idx -> m_blocks[idx] != SPECIAL || m_special[idx].canRemove());
+    }
+
+    /**
+     * Remove the unread entries matching the filter, the entries order is
+     * kept
+     *
+     * @param filter the filter, gets the entry index
+     * @return number of removed entries
+     */
+    public int removeIf(IntPredicate filter) {
+        int dst = m_pos;
+        for (int src = m_pos; src < m_size; src++) {
+            final boolean special = m_blocks[src] == SPECIAL;
+            if (filter.test(src)) {
+                if (special) {
+                    m_special[src] = null;
+                }
+                continue;
+            }
+
+            if (dst != src) {
+                m_positions[dst] = m_positions[src];
+                m_blocks[dst] = m_blocks[src];
+                if (special) {
+                    m_special[dst] = m_special[src];
+                    m_special[src] = null;
+                }
+            }
+            dst++;
+        }
+
+        int removed = m_size - dst;
+        m_size = dst;
+        return removed;
+    }
+}
@@ -23,6 +23,7 @@
  */
 package org.primesoft.mcpainter.blocksplacer;
 
+import org.bukkit.Location;
 import org.primesoft.mcpainter.MCPainterMain;
 import org.primesoft.mcpainter.worldEdit.MaxChangedBlocksException;
 
@@ -40,6 +41,12 @@ public class ChangeEntry extends BlockLogerEntry {
         m_change = change;
     }
 
+    @Override
+    public long getChunkKey() {
+        Location l = m_change.getLocation();
+        return l != null ? ChunkKey.of(l.getBlockX() >> 4, l.getBlockZ() >> 4) : ChunkKey.NONE;
+    }
+
     @Override
     public boolean canRemove() {
         return true;
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+/**
+ * Helper methods for the packed chunk coordinates
+ *
+ * @author SBPrime
+ */
+public final class ChunkKey {
+
+    /**
+     * Key used by entries that are not bound to any chunk
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private ChunkKey() {
+    }
+
+    /**
+     * Pack the chunk coordinates
+     *
+     * @param cx chunk X
+     * @param cz chunk Z
+     * @return packed chunk key
+     */
+    public static long of(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xffffffffL);
+    }
+
+    /**
+     * Get the chunk key for a block position
+     *
+     * @param x block X
+     * @param z block Z
+     * @return packed chunk key
+     */
+    public static long fromBlock(double x, double z) {
+        return of((int) Math.floor(x) >> 4, (int) Math.floor(z) >> 4);
+    }
+
+    /**
+     * Get the chunk X coordinate
+     *
+     * @param key packed chunk key
+     * @return chunk X
+     */
+    public static int getX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Get the chunk Z coordinate
+     *
+     * @param key packed chunk key
+     * @return chunk Z
+     */
+    public static int getZ(long key) {
+        return (int) key;
+    }
+}
@@ -23,6 +23,8 @@
  */
 package org.primesoft.mcpainter.blocksplacer;
 
+import org.primesoft.mcpainter.worldEdit.IEditSession;
+
 /**
  *
  * @author SBPrime
@@ -39,6 +41,10 @@ public class FlushEntry extends BlockLogerEntry {
     
     @Override
     public void execute() {
-        m_loger.getLocalSession().remember(m_loger.getEditSession());
+        IEditSession session = m_loger.getEditSession();
+        long[] touched = session.finish();
+        m_loger.getLocalSession().remember(session);
+        m_loger.deferPhysics(touched);
+        m_loger.getJob().close();
     }    
 }
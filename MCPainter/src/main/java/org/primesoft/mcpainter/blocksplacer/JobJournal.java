@@ -0,0 +1,719 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.primesoft.mcpainter.MCPainterMain;
+import org.primesoft.mcpainter.configuration.ConfigProvider;
+import org.primesoft.mcpainter.utils.BaseBlock;
+import org.primesoft.mcpainter.utils.Vector;
+import org.primesoft.mcpainter.worldEdit.IEditSession;
+import org.primesoft.mcpainter.worldEdit.ILocalSession;
+import org.primesoft.mcpainter.worldEdit.IWorldEdit;
+
+/**
+ * Append only, memory mapped journal of a drawing job. The journal stores the
+ * packed block stream and the placement progress so unfinished jobs can be
+ * resumed after a restart. When the player queue is full the job is paged
+ * from the journal instead of being kept in memory.
+ *
+ * Custom changes (for example map item frames) can not be serialized, the
+ * journal stores only a reference to the change kept in memory. They are
+ * paged in with the blocks but are not resumed after a restart.
+ *
+ * @author SBPrime
+ */
+public class JobJournal {
+
+    private static final int MAGIC = 0x4d43504a;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_PLAYER = 8;
+    private static final int OFFSET_WORLD = 24;
+    private static final int OFFSET_CURSOR = 40;
+    private static final int OFFSET_END = 48;
+    private static final int OFFSET_STATE = 56;
+
+    private static final int STATE_ACTIVE = 0;
+    private static final int STATE_DISCARDED = 1;
+    private static final int STATE_COMPLETED = 2;
+
+    private static final byte RECORD_PALETTE = 1;
+    private static final byte RECORD_BLOCKS = 2;
+    private static final byte RECORD_RAW_BLOCK = 3;
+    private static final byte RECORD_MESSAGE = 4;
+    private static final byte RECORD_FLUSH = 5;
+    private static final byte RECORD_CHANGE = 6;
+
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    private static final String EXTENSION = ".job";
+
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    /**
+     * Names of the journal files used by live jobs or being replayed, they
+     * are never resumed
+     */
+    private static final Set<String> s_owned = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Journal records handler
+     */
+    private interface IRecordHandler {
+
+        void palette(short idx, String data);
+
+        void block(long pos, short idx);
+
+        void rawBlock(long pos, String data);
+
+        void message(String msg);
+
+        void flush();
+
+        void change(int idx);
+    }
+
+    /**
+     * The MTA mutex
+     */
+    private final Object m_mutex = new Object();
+
+    private final MCPainterMain m_plugin;
+
+    private final BlockLoger m_loger;
+
+    private final BlockPlacer m_placer;
+
+    private final File m_file;
+
+    private final FileChannel m_channel;
+
+    private final MappedByteBuffer m_header;
+
+    private MappedByteBuffer m_data;
+
+    /**
+     * End of the written data
+     */
+    private int m_end;
+
+    /**
+     * Number of palette entries written
+     */
+    private int m_paletteWritten;
+
+    /**
+     * Is the job paged from the journal
+     */
+    private boolean m_paging;
+
+    /**
+     * The next record to page in
+     */
+    private int m_pageOffset;
+
+    /**
+     * The custom changes referenced by the journal, released once paged in
+     */
+    private final List<BlockLogerEntry> m_changes = new ArrayList<>();
+
+    private boolean m_discarded;
+
+    private boolean m_failed;
+
+    private boolean m_closed;
+
+    /**
+     * Number of executed entries (block placer only)
+     */
+    private long m_executed;
+
+    /**
+     * Create new job journal
+     *
+     * @param plugin the plugin
+     * @param loger the journaled job
+     * @param placer the block placer
+     * @return the journal or null if it cannot be created
+     */
+    static JobJournal create(MCPainterMain plugin, BlockLoger loger, BlockPlacer placer) {
+        File file = new File(ConfigProvider.getJournalFolder(),
+                loger.getPlayer().getUniqueId() + "_" + UUID.randomUUID() + EXTENSION);
+        s_owned.add(file.getName());
+        try {
+            return new JobJournal(plugin, loger, placer, file);
+        } catch (IOException ex) {
+            MCPainterMain.log("Unable to create job journal " + file.getName() + ": " + ex.getMessage());
+            file.delete();
+            s_owned.remove(file.getName());
+            return null;
+        }
+    }
+
+    private JobJournal(MCPainterMain plugin, BlockLoger loger, BlockPlacer placer, File file) throws IOException {
+        m_plugin = plugin;
+        m_loger = loger;
+        m_placer = placer;
+        m_file = file;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        m_channel = raf.getChannel();
+        m_header = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        m_data = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SIZE);
+        m_end = HEADER_SIZE;
+
+        UUID playerId = loger.getPlayer().getUniqueId();
+        UUID worldId = loger.getWorld().getUID();
+        m_header.putInt(0, MAGIC);
+        m_header.putInt(4, VERSION);
+        m_header.putLong(OFFSET_PLAYER, playerId.getMostSignificantBits());
+        m_header.putLong(OFFSET_PLAYER + 8, playerId.getLeastSignificantBits());
+        m_header.putLong(OFFSET_WORLD, worldId.getMostSignificantBits());
+        m_header.putLong(OFFSET_WORLD + 8, worldId.getLeastSignificantBits());
+        m_header.putLong(OFFSET_CURSOR, 0);
+        m_header.putLong(OFFSET_END, m_end);
+        m_header.putInt(OFFSET_STATE, STATE_ACTIVE);
+    }
+
+    /**
+     * Write the segments to the journal and queue them. When the player queue
+     * is full the segments are dropped and paged in later.
+     *
+     * @param segments the segments
+     * @return future completed when the player queue has free capacity
+     */
+    CompletableFuture<Void> append(List<BlockSegment> segments) {
+        synchronized (m_mutex) {
+            if (!m_failed && !m_closed) {
+                try {
+                    write(segments);
+                } catch (IOException ex) {
+                    MCPainterMain.log("Unable to write job journal " + m_file.getName() + ": " + ex.getMessage());
+                    m_failed = true;
+                }
+            }
+
+            if (m_paging && !m_failed) {
+                for (BlockSegment segment : segments) {
+                    m_placer.releaseSegment(segment);
+                }
+                return COMPLETED;
+            }
+
+            CompletableFuture<Void> capacity = m_placer.addSegments(segments, m_loger.getJob());
+            if (m_failed) {
+                return capacity;
+            }
+
+            if (!capacity.isDone()) {
+                m_paging = true;
+                m_pageOffset = m_end;
+                capacity.thenRun(this::schedulePageIn);
+            }
+            return COMPLETED;
+        }
+    }
+
+    /**
+     * The job entries were purged
+     */
+    void discard() {
+        synchronized (m_mutex) {
+            m_discarded = true;
+            if (!m_closed) {
+                m_header.putInt(OFFSET_STATE, STATE_DISCARDED);
+            }
+        }
+    }
+
+    /**
+     * The entry was placed (block placer only)
+     *
+     * @param entry the entry
+     */
+    void executed(BlockLogerEntry entry) {
+        if (entry instanceof PhysicsEntry) {
+            return;
+        }
+
+        m_executed++;
+        if (entry instanceof FlushEntry) {
+            close();
+        }
+    }
+
+    /**
+     * Store the placement progress (block placer only)
+     */
+    void commitProgress() {
+        synchronized (m_mutex) {
+            if (!m_closed) {
+                m_header.putLong(OFFSET_CURSOR, m_executed);
+            }
+        }
+    }
+
+    /**
+     * The job is done, remove the journal
+     */
+    private void close() {
+        synchronized (m_mutex) {
+            if (m_closed) {
+                return;
+            }
+
+            m_closed = true;
+            m_paging = false;
+            m_changes.clear();
+            m_header.putInt(OFFSET_STATE, STATE_COMPLETED);
+            try {
+                m_channel.close();
+            } catch (IOException ex) {
+                MCPainterMain.log("Unable to close job journal " + m_file.getName() + ": " + ex.getMessage());
+            }
+            m_file.delete();
+            s_owned.remove(m_file.getName());
+        }
+    }
+
+    private void schedulePageIn() {
+        m_plugin.getServer().getScheduler().runTaskAsynchronously(m_plugin, this::pageIn);
+    }
+
+    /**
+     * Load the next window of entries from the journal to the block placer
+     */
+    private void pageIn() {
+        synchronized (m_mutex) {
+            if (!m_paging) {
+                return;
+            }
+
+            final List<BlockSegment> segments = new ArrayList<>();
+            final boolean discarded = m_discarded;
+            IRecordHandler handler = new IRecordHandler() {
+                private BlockSegment m_segment;
+
+                private BlockSegment getSegment() {
+                    if (m_segment == null || m_segment.isFull()) {
+                        m_segment = m_placer.acquireSegment(m_loger);
+                        segments.add(m_segment);
+                    }
+                    return m_segment;
+                }
+
+                @Override
+                public void palette(short idx, String data) {
+                }
+
+                @Override
+                public void block(long pos, short idx) {
+                    if (!discarded) {
+                        getSegment().addBlock(pos, idx);
+                    }
+                }
+
+                @Override
+                public void rawBlock(long pos, String data) {
+                    if (!discarded) {
+                        getSegment().addSpecial(new BlockEntry(m_loger, toVector(pos), new BaseBlock(data)));
+                    }
+                }
+
+                @Override
+                public void message(String msg) {
+                    if (!discarded) {
+                        getSegment().addSpecial(new MessageEntry(m_loger, msg));
+                    }
+                }
+
+                @Override
+                public void flush() {
+                    getSegment().addSpecial(new FlushEntry(m_loger));
+                }
+
+                @Override
+                public void change(int idx) {
+                    BlockLogerEntry entry = m_changes.set(idx, null);
+                    if (!discarded && entry != null) {
+                        getSegment().addSpecial(entry);
+                    }
+                }
+            };
+
+            m_pageOffset = readRecords(m_data.duplicate(), m_pageOffset, m_end,
+                    ConfigProvider.getQueueHardLimit(), handler);
+            if (m_pageOffset < 0) {
+                MCPainterMain.log("Job journal " + m_file.getName() + " is corrupted.");
+                m_paging = false;
+            } else if (m_pageOffset >= m_end) {
+                m_paging = false;
+            }
+
+            CompletableFuture<Void> capacity = m_placer.addSegments(segments, m_loger.getJob());
+            if (m_paging) {
+                capacity.thenRun(this::schedulePageIn);
+            }
+        }
+    }
+
+    /**
+     * Write the segments
+     *
+     * @param segments
+     * @throws IOException
+     */
+    private void write(List<BlockSegment> segments) throws IOException {
+        m_data.position(m_end);
+
+        BlockPalette palette = m_loger.getPalette();
+        int paletteSize = palette.size();
+        for (; m_paletteWritten < paletteSize; m_paletteWritten++) {
+            byte[] data = toBytes(palette.get((short) m_paletteWritten).Data.getAsString());
+            ensureCapacity(7 + data.length);
+            m_data.put(RECORD_PALETTE);
+            m_data.putShort((short) m_paletteWritten);
+            putBytes(data);
+        }
+
+        for (BlockSegment segment : segments) {
+            final int size = segment.size();
+            int i = 0;
+            while (i < size) {
+                if (!segment.isBlock(i)) {
+                    write(segment.get(i));
+                    i++;
+                    continue;
+                }
+
+                int end = i;
+                while (end < size && segment.isBlock(end)) {
+                    end++;
+                }
+
+                ensureCapacity(5 + (end - i) * 10);
+                m_data.put(RECORD_BLOCKS);
+                m_data.putInt(end - i);
+                for (; i < end; i++) {
+                    m_data.putLong(segment.getPosition(i));
+                    m_data.putShort(segment.getBlockIndex(i));
+                }
+            }
+        }
+
+        m_end = m_data.position();
+        m_header.putLong(OFFSET_END, m_end);
+    }
+
+    /**
+     * Write entry stored as object
+     *
+     * @param entry
+     * @throws IOException
+     */
+    private void write(BlockLogerEntry entry) throws IOException {
+        if (entry instanceof BlockEntry) {
+            BlockEntry block = (BlockEntry) entry;
+            byte[] data = toBytes(block.getBlock().Data.getAsString());
+            ensureCapacity(13 + data.length);
+            m_data.put(RECORD_RAW_BLOCK);
+            m_data.putLong(PackedPosition.pack(block.getLocation()));
+            putBytes(data);
+        } else if (entry instanceof MessageEntry) {
+            byte[] data = toBytes(((MessageEntry) entry).getMessage());
+            ensureCapacity(5 + data.length);
+            m_data.put(RECORD_MESSAGE);
+            putBytes(data);
+        } else if (entry instanceof FlushEntry) {
+            ensureCapacity(1);
+            m_data.put(RECORD_FLUSH);
+        } else if (entry instanceof ChangeEntry) {
+            ensureCapacity(5);
+            m_data.put(RECORD_CHANGE);
+            m_data.putInt(m_changes.size());
+            m_changes.add(entry);
+        }
+    }
+
+    /**
+     * Make sure the mapped data has enough free space
+     *
+     * @param bytes number of bytes to write
+     * @throws IOException
+     */
+    private void ensureCapacity(int bytes) throws IOException {
+        final int pos = m_data.position();
+        if (pos + (long) bytes > m_data.capacity()) {
+            long size = Math.max(2L * m_data.capacity(), (long) pos + bytes);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal too large");
+            }
+            m_data = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            m_data.position(pos);
+        }
+    }
+
+    private void putBytes(byte[] data) {
+        m_data.putInt(data.length);
+        m_data.put(data);
+    }
+
+    private static byte[] toBytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String getString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Vector toVector(long pos) {
+        return new Vector(PackedPosition.getX(pos), PackedPosition.getY(pos), PackedPosition.getZ(pos));
+    }
+
+    /**
+     * Read the journal records
+     *
+     * @param data the journal data
+     * @param from first record offset
+     * @param end end of the data
+     * @param maxEntries maximum number of entries to read
+     * @param handler the records handler
+     * @return offset of the next record or -1 if the journal is corrupted
+     */
+    private static int readRecords(ByteBuffer data, int from, int end, int maxEntries, IRecordHandler handler) {
+        data.position(from);
+        int entries = 0;
+        while (data.position() < end && entries < maxEntries) {
+            byte type = data.get();
+            switch (type) {
+                case RECORD_PALETTE:
+                    handler.palette(data.getShort(), getString(data));
+                    break;
+                case RECORD_BLOCKS:
+                    int cnt = data.getInt();
+                    for (int i = 0; i < cnt; i++) {
+                        handler.block(data.getLong(), data.getShort());
+                    }
+                    entries += cnt;
+                    break;
+                case RECORD_RAW_BLOCK:
+                    handler.rawBlock(data.getLong(), getString(data));
+                    entries++;
+                    break;
+                case RECORD_MESSAGE:
+                    handler.message(getString(data));
+                    entries++;
+                    break;
+                case RECORD_FLUSH:
+                    handler.flush();
+                    entries++;
+                    break;
+                case RECORD_CHANGE:
+                    handler.change(data.getInt());
+                    entries++;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return data.position();
+    }
+
+    /**
+     * Resume the unfinished jobs of the player, the journals of the jobs that
+     * are still queued are skipped
+     *
+     * @param plugin the plugin
+     * @param player the player
+     * @param worldEdit the WorldEdit integration
+     */
+    public static void resume(final MCPainterMain plugin, final Player player, IWorldEdit worldEdit) {
+        final String prefix = player.getUniqueId() + "_";
+        File[] files = ConfigProvider.getJournalFolder().listFiles(
+                (dir, name) -> name.startsWith(prefix) && name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        for (final File file : files) {
+            if (!s_owned.add(file.getName())) {
+                continue;
+            }
+
+            final ILocalSession lSession = worldEdit.getSession(player);
+            final IEditSession session = lSession.createEditSession(worldEdit.wrapPlayer(player));
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin,
+                    () -> replay(plugin, player, file, lSession, session));
+        }
+    }
+
+    /**
+     * Queue the not placed journal entries
+     *
+     * @param plugin the plugin
+     * @param player the player
+     * @param file the journal file
+     * @param lSession the local session
+     * @param session the edit session
+     */
+    private static void replay(MCPainterMain plugin, Player player, File file,
+            ILocalSession lSession, IEditSession session) {
+        try {
+            replayFile(plugin, player, file, lSession, session);
+        } finally {
+            s_owned.remove(file.getName());
+        }
+    }
+
+    /**
+     * Queue the not placed journal entries and remove the journal
+     *
+     * @param plugin the plugin
+     * @param player the player
+     * @param file the journal file
+     * @param lSession the local session
+     * @param session the edit session
+     */
+    private static void replayFile(MCPainterMain plugin, Player player, File file,
+            ILocalSession lSession, IEditSession session) {
+        BlockLoger loger = null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                file.delete();
+                return;
+            }
+
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION
+                    || data.getInt(OFFSET_STATE) != STATE_ACTIVE) {
+                file.delete();
+                return;
+            }
+
+            World world = player.getWorld();
+            UUID worldId = new UUID(data.getLong(OFFSET_WORLD), data.getLong(OFFSET_WORLD + 8));
+            if (!world.getUID().equals(worldId)) {
+                MCPainterMain.say(player, ChatColor.YELLOW + "You have unfinished drawing jobs in a different world.");
+                return;
+            }
+
+            final int end = (int) Math.min(data.getLong(OFFSET_END), channel.size());
+            final long cursor = data.getLong(OFFSET_CURSOR);
+            final List<BaseBlock> palette = new ArrayList<>();
+            final BlockLoger target = new BlockLoger(player, lSession, session, plugin);
+            final boolean[] ended = new boolean[1];
+            loger = target;
+
+            MCPainterMain.say(player, "Resuming unfinished drawing job...");
+            readRecords(data, HEADER_SIZE, end, Integer.MAX_VALUE, new IRecordHandler() {
+                private long m_skip = cursor;
+
+                private boolean skip() {
+                    if (m_skip > 0) {
+                        m_skip--;
+                        return true;
+                    }
+                    return false;
+                }
+
+                @Override
+                public void palette(short idx, String blockData) {
+                    while (palette.size() <= idx) {
+                        palette.add(null);
+                    }
+                    palette.set(idx, new BaseBlock(blockData));
+                }
+
+                @Override
+                public void block(long pos, short idx) {
+                    if (!skip()) {
+                        target.logBlock(toVector(pos), palette.get(idx));
+                    }
+                }
+
+                @Override
+                public void rawBlock(long pos, String blockData) {
+                    if (!skip()) {
+                        target.logBlock(toVector(pos), new BaseBlock(blockData));
+                    }
+                }
+
+                @Override
+                public void message(String msg) {
+                    if (!skip()) {
+                        target.logMessage(msg);
+                    }
+                }
+
+                @Override
+                public void flush() {
+                    ended[0] = true;
+                    if (!skip()) {
+                        target.logEndSession();
+                    }
+                }
+
+                @Override
+                public void change(int idx) {
+                    skip();
+                }
+            });
+
+            if (!ended[0]) {
+                //The drawing was interrupted before it was logged completely
+                target.logEndSession();
+            }
+        } catch (IOException | RuntimeException ex) {
+            MCPainterMain.log("Unable to resume job journal " + file.getName() + ": " + ex.getMessage());
+            if (loger != null) {
+                loger.discard();
+            }
+            return;
+        }
+
+        loger.flush();
+        file.delete();
+    }
+}
@@ -38,6 +38,10 @@ public class MessageEntry extends BlockLogerEntry {
         m_message = msg;                 
     }
 
+    public String getMessage() {
+        return m_message;
+    }
+
     @Override
     public boolean canRemove() {
         return true;
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import org.primesoft.mcpainter.utils.Vector;
+
+/**
+ * Block coordinates packed into a long: X and Z use 26 bits (signed), Y uses
+ * the lower 12 bits.
+ *
+ * @author SBPrime
+ */
+public final class PackedPosition {
+
+    private PackedPosition() {
+    }
+
+    /**
+     * Pack the block coordinates
+     *
+     * @param x block X
+     * @param y block Y
+     * @param z block Z
+     * @return packed position
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3ffffff) << 38) | ((long) (z & 0x3ffffff) << 12) | (y & 0xfff);
+    }
+
+    /**
+     * Pack the block coordinates of the vector
+     *
+     * @param v the vector
+     * @return packed position
+     */
+    public static long pack(Vector v) {
+        return pack((int) Math.floor(v.getX()), (int) Math.floor(v.getY()), (int) Math.floor(v.getZ()));
+    }
+
+    public static int getX(long pos) {
+        return (int) (pos >> 38);
+    }
+
+    public static int getY(long pos) {
+        return (int) (pos & 0xfff);
+    }
+
+    public static int getZ(long pos) {
+        return (int) (pos << 26 >> 38);
+    }
+
+    /**
+     * Get the chunk key for the packed position
+     *
+     * @param pos packed position
+     * @return the chunk key
+     */
+    public static long getChunkKey(long pos) {
+        return ChunkKey.of(getX(pos) >> 4, getZ(pos) >> 4);
+    }
+}
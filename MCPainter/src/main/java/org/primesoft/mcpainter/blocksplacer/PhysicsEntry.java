@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.Arrays;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+
+/**
+ * Deferred physics update of the blocks placed in one chunk. Writing the same
+ * block data again is ignored by the server, so the block state is
+ * snapshotted, the block is cleared without physics and the state is written
+ * back with physics enabled. The tile entity data is restored from the
+ * snapshot.
+ * An entry holds at most {@link #MAX_SIZE} blocks so one entry does not stall
+ * the placer tick.
+ *
+ * @author SBPrime
+ */
+public class PhysicsEntry extends BlockLogerEntry {
+
+    /**
+     * Maximum number of blocks in one entry
+     */
+    public static final int MAX_SIZE = 256;
+
+    private final long m_chunkKey;
+
+    /**
+     * The world of entries without a loger (undo)
+     */
+    private final World m_world;
+
+    /**
+     * Packed block positions
+     */
+    private long[] m_positions = new long[16];
+
+    private int m_count;
+
+    public PhysicsEntry(BlockLoger loger, long chunkKey) {
+        super(loger);
+
+        m_chunkKey = chunkKey;
+        m_world = null;
+    }
+
+    public PhysicsEntry(World world, long chunkKey) {
+        super(null);
+
+        m_chunkKey = chunkKey;
+        m_world = world;
+    }
+
+    /**
+     * Add block to update (the entry must not be full)
+     *
+     * @param pos packed block position
+     */
+    public void add(long pos) {
+        if (m_count == m_positions.length) {
+            m_positions = Arrays.copyOf(m_positions, m_count * 2);
+        }
+        m_positions[m_count++] = pos;
+    }
+
+    public boolean isFull() {
+        return m_count >= MAX_SIZE;
+    }
+
+    @Override
+    public World getWorld() {
+        return m_world != null ? m_world : super.getWorld();
+    }
+
+    @Override
+    public long getChunkKey() {
+        return m_chunkKey;
+    }
+
+    @Override
+    public boolean canRemove() {
+        return true;
+    }
+
+    @Override
+    public void execute() {
+        World world = getWorld();
+        for (int i = 0; i < m_count; i++) {
+            long pos = m_positions[i];
+            Block b = world.getBlockAt(PackedPosition.getX(pos), PackedPosition.getY(pos),
+                    PackedPosition.getZ(pos));
+            if (b.getType() == Material.AIR) {
+                continue;
+            }
+
+            BlockState state = b.getState();
+            b.setType(Material.AIR, false);
+            state.update(true, true);
+        }
+    }
+}
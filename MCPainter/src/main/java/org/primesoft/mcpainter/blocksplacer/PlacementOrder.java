@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+/**
+ * The block placement order of a job
+ *
+ * @author SBPrime
+ */
+public enum PlacementOrder {
+    /**
+     * Group the blocks by chunk, keep the drawing order in a chunk
+     */
+    Chunk,
+    /**
+     * Chunks in Morton (Z-order) curve order
+     */
+    Morton,
+    /**
+     * Lowest blocks first
+     */
+    BottomUp,
+    /**
+     * Column by column, from the top (less sky light updates)
+     */
+    TopDown,
+    /**
+     * Blocks nearest to the player first
+     */
+    Nearest;
+
+    /**
+     * Find the placement order by name
+     *
+     * @param name the name (case insensitive)
+     * @return the order or null if not found
+     */
+    public static PlacementOrder parse(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        for (PlacementOrder order : values()) {
+            if (order.name().equalsIgnoreCase(name)) {
+                return order;
+            }
+        }
+        return null;
+    }
+}
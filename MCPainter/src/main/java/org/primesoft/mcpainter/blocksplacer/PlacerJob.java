@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Handle of a drawing job queued in the block placer. Cancel, pause and resume
+ * only change the job state, the queued segments are handled by the block
+ * placer when it reaches them.
+ *
+ * @author SBPrime
+ */
+public class PlacerJob {
+
+    /**
+     * The job state
+     */
+    public enum State {
+        Running, Paused, Cancelled
+    }
+
+    /**
+     * The next job id
+     */
+    private static final AtomicInteger s_nextId = new AtomicInteger();
+
+    private final int m_id;
+
+    /**
+     * The player queue the job belongs to
+     */
+    private final PlayerQueue m_queue;
+
+    /**
+     * The job owner, null for jobs added as entries
+     */
+    private final BlockLoger m_loger;
+
+    /**
+     * The queued segments
+     */
+    private final Queue<BlockSegment> m_segments = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The segment currently placed (accessed only by the block placer)
+     */
+    private BlockSegment m_current;
+
+    /**
+     * Number of queued entries
+     */
+    private final AtomicInteger m_size = new AtomicInteger();
+
+    private final AtomicReference<State> m_state = new AtomicReference<>(State.Running);
+
+    /**
+     * No more entries are going to be added
+     */
+    private volatile boolean m_closed;
+
+    /**
+     * Was the cancel request applied (accessed only by the block placer)
+     */
+    private boolean m_cancelApplied;
+
+    PlacerJob(PlayerQueue queue, BlockLoger loger) {
+        m_id = s_nextId.incrementAndGet();
+        m_queue = queue;
+        m_loger = loger;
+    }
+
+    public int getId() {
+        return m_id;
+    }
+
+    public String getPlayer() {
+        return m_queue.getPlayer();
+    }
+
+    public State getState() {
+        return m_state.get();
+    }
+
+    /**
+     * Number of queued entries
+     *
+     * @return
+     */
+    public int size() {
+        return m_size.get();
+    }
+
+    PlayerQueue getQueue() {
+        return m_queue;
+    }
+
+    /**
+     * Remove all queued entries that can be removed, the entries that can not
+     * be removed (undo flush) are still placed
+     *
+     * @return false if the job was already cancelled
+     */
+    public boolean cancel() {
+        State state = m_state.getAndSet(State.Cancelled);
+        if (state == State.Cancelled) {
+            return false;
+        }
+
+        m_queue.activate();
+        return true;
+    }
+
+    /**
+     * Stop placing the job entries, the paused entries do not block the other
+     * jobs of the player
+     *
+     * @return false if the job is not running
+     */
+    public boolean pause() {
+        if (!m_state.compareAndSet(State.Running, State.Paused)) {
+            return false;
+        }
+
+        m_queue.activate();
+        return true;
+    }
+
+    /**
+     * Continue placing the paused job entries
+     *
+     * @return false if the job is not paused
+     */
+    public boolean resume() {
+        if (!m_state.compareAndSet(State.Paused, State.Running)) {
+            return false;
+        }
+
+        m_queue.activate();
+        return true;
+    }
+
+    /**
+     * Add filled segment to the job
+     *
+     * @param segment
+     */
+    void add(BlockSegment segment) {
+        if (m_state.get() == State.Cancelled) {
+            segment.purge();
+        }
+
+        final int size = segment.size();
+        if (size == 0) {
+            m_queue.releaseSegment(segment);
+            return;
+        }
+
+        m_size.addAndGet(size);
+        m_queue.changeSize(size);
+        m_segments.add(segment);
+    }
+
+    /**
+     * No more entries are going to be added, the job is removed once it is
+     * empty
+     */
+    void close() {
+        m_closed = true;
+        m_queue.activate();
+    }
+
+    boolean isClosed() {
+        return m_closed;
+    }
+
+    /**
+     * Can the job entries be placed
+     *
+     * @return
+     */
+    boolean isRunnable() {
+        return m_state.get() != State.Paused;
+    }
+
+    /**
+     * Get the next entry (block placer only)
+     *
+     * @return the entry or null if job is empty
+     */
+    BlockLogerEntry poll() {
+        if (!m_cancelApplied && m_state.get() == State.Cancelled) {
+            m_cancelApplied = true;
+            if (m_loger != null && m_loger.getJournal() != null) {
+                m_loger.getJournal().discard();
+            }
+            if (m_current != null) {
+                purge(m_current);
+            }
+        }
+
+        while (true) {
+            if (m_current == null) {
+                m_current = m_segments.poll();
+                if (m_current == null) {
+                    return null;
+                }
+                if (m_cancelApplied) {
+                    purge(m_current);
+                }
+            }
+
+            BlockLogerEntry result = m_current.poll();
+            if (result != null) {
+                m_size.decrementAndGet();
+                m_queue.changeSize(-1);
+                return result;
+            }
+            m_queue.releaseSegment(m_current);
+            m_current = null;
+        }
+    }
+
+    /**
+     * Is the job empty (block placer only)
+     *
+     * @return
+     */
+    boolean isEmpty() {
+        return (m_current == null || m_current.size() == 0) && m_segments.isEmpty();
+    }
+
+    /**
+     * Remove the removable entries from the segment
+     *
+     * @param segment
+     */
+    private void purge(BlockSegment segment) {
+        int removed = segment.purge();
+        m_size.addAndGet(-removed);
+        m_queue.changeSize(-removed);
+    }
+}
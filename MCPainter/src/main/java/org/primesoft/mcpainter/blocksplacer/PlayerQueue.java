@@ -0,0 +1,265 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Player block queue, a list of jobs placed one after another. Many producers
+ * can add segments while the block placer consumes them, no locking is
+ * required.
+ *
+ * @author SBPrime
+ */
+class PlayerQueue {
+
+    /**
+     * The player name
+     */
+    private final String m_player;
+
+    /**
+     * The parent block placer
+     */
+    private final BlockPlacer m_placer;
+
+    /**
+     * The queued jobs
+     */
+    private final Queue<PlacerJob> m_jobs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The job currently placed (accessed only by the block placer)
+     */
+    private PlacerJob m_current;
+
+    /**
+     * Number of queued entries
+     */
+    private final AtomicInteger m_size = new AtomicInteger();
+
+    /**
+     * Is the queue in the block placer active list
+     */
+    private final AtomicBoolean m_active = new AtomicBoolean();
+
+    /**
+     * Completed when the queue has free capacity
+     */
+    private final AtomicReference<CompletableFuture<Void>> m_capacity = new AtomicReference<>();
+
+    PlayerQueue(String player, BlockPlacer placer) {
+        m_player = player;
+        m_placer = placer;
+    }
+
+    public String getPlayer() {
+        return m_player;
+    }
+
+    /**
+     * Create new job
+     *
+     * @param loger the job owner, may be null
+     * @return the job
+     */
+    public PlacerJob createJob(BlockLoger loger) {
+        PlacerJob job = new PlacerJob(this, loger);
+        m_jobs.add(job);
+        return job;
+    }
+
+    /**
+     * Get the queued jobs
+     *
+     * @return
+     */
+    public List<PlacerJob> getJobs() {
+        return new ArrayList<>(m_jobs);
+    }
+
+    /**
+     * Get the next entry of the first runnable job (block placer only)
+     *
+     * @return the entry or null if there is nothing to place
+     */
+    public BlockLogerEntry poll() {
+        if (m_current != null && m_current.isRunnable()) {
+            BlockLogerEntry result = m_current.poll();
+            if (result != null) {
+                return result;
+            }
+        }
+
+        for (Iterator<PlacerJob> it = m_jobs.iterator(); it.hasNext();) {
+            PlacerJob job = it.next();
+            if (!job.isRunnable()) {
+                continue;
+            }
+
+            BlockLogerEntry result = job.poll();
+            if (result != null) {
+                m_current = job;
+                return result;
+            }
+
+            if (job.isClosed() && job.isEmpty()) {
+                it.remove();
+                m_placer.removeJob(job);
+            }
+        }
+
+        m_current = null;
+        return null;
+    }
+
+    /**
+     * Is there nothing to place (block placer only)
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        for (PlacerJob job : m_jobs) {
+            if (job.isRunnable() && !job.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return m_size.get();
+    }
+
+    /**
+     * Number of queued entries of the jobs that are not paused, the paused
+     * jobs do not take the queue capacity
+     *
+     * @return
+     */
+    public int runnableSize() {
+        int result = 0;
+        for (PlacerJob job : m_jobs) {
+            if (job.isRunnable()) {
+                result += job.size();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Update the number of queued entries
+     *
+     * @param delta
+     */
+    void changeSize(int delta) {
+        m_size.addAndGet(delta);
+    }
+
+    /**
+     * Return unused segment to the pool
+     *
+     * @param segment
+     */
+    void releaseSegment(BlockSegment segment) {
+        m_placer.releaseSegment(segment);
+    }
+
+    /**
+     * Cancel all jobs, the entries are removed by the block placer in a single
+     * pass over every job segment
+     */
+    public void purge() {
+        for (Iterator<PlacerJob> it = m_jobs.iterator(); it.hasNext();) {
+            it.next().cancel();
+        }
+    }
+
+    /**
+     * Get the future that is completed once the queue size drops to the limit
+     *
+     * @param limit the queue size limit
+     * @return the capacity future
+     */
+    public CompletableFuture<Void> awaitCapacity(int limit) {
+        CompletableFuture<Void> result = m_capacity.get();
+        while (result == null) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            result = m_capacity.compareAndSet(null, future) ? future : m_capacity.get();
+        }
+
+        signalCapacity(limit);
+        return result;
+    }
+
+    /**
+     * Complete the capacity future if the runnable jobs size is within the
+     * limit
+     *
+     * @param limit the queue size limit
+     */
+    public void signalCapacity(int limit) {
+        if (m_capacity.get() == null || runnableSize() > limit) {
+            return;
+        }
+
+        CompletableFuture<Void> future = m_capacity.getAndSet(null);
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Add the queue to the block placer active list if it is not there
+     */
+    public void activate() {
+        if (markActive()) {
+            m_placer.activate(this);
+        }
+    }
+
+    /**
+     * Mark the queue as active
+     *
+     * @return true if the queue was not active
+     */
+    public boolean markActive() {
+        return m_active.compareAndSet(false, true);
+    }
+
+    /**
+     * Mark the queue as inactive
+     */
+    public void deactivate() {
+        m_active.set(false);
+    }
+}
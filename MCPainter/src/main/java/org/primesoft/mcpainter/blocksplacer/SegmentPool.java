@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the free queue segments
+ *
+ * @author SBPrime
+ */
+class SegmentPool {
+
+    private final Queue<BlockSegment> m_free = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger m_freeCount = new AtomicInteger();
+
+    /**
+     * Maximum number of pooled segments
+     */
+    private final int m_maxFree;
+
+    SegmentPool(int maxFree) {
+        m_maxFree = maxFree;
+    }
+
+    /**
+     * Get a free segment
+     *
+     * @param loger the segment owner
+     * @return the segment
+     */
+    public BlockSegment acquire(BlockLoger loger) {
+        BlockSegment result = m_free.poll();
+        if (result == null) {
+            result = new BlockSegment();
+        } else {
+            m_freeCount.decrementAndGet();
+        }
+
+        result.reset(loger);
+        return result;
+    }
+
+    /**
+     * Return the segment to the pool
+     *
+     * @param segment the segment
+     */
+    public void release(BlockSegment segment) {
+        segment.reset(null);
+        if (m_freeCount.incrementAndGet() <= m_maxFree) {
+            m_free.add(segment);
+        } else {
+            m_freeCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.Arrays;
+import java.util.List;
+import org.primesoft.mcpainter.utils.LongIntHashMap;
+
+/**
+ * Reusable buffers used to reorder the segment blocks. The buffers grow to the
+ * longest block run sorted. Not thread safe, every producer uses its own
+ * instance.
+ *
+ * @author SBPrime
+ */
+class SegmentSorter {
+
+    private long[] m_positions = new long[BlockSegment.CAPACITY];
+
+    private short[] m_blocks = new short[BlockSegment.CAPACITY];
+
+    private int[] m_groups = new int[BlockSegment.CAPACITY];
+
+    private int[] m_offsets = new int[BlockSegment.CAPACITY + 1];
+
+    private final LongIntHashMap m_chunks = new LongIntHashMap(BlockSegment.CAPACITY);
+
+    private long[] m_keys = new long[BlockSegment.CAPACITY];
+
+    private int[] m_index = new int[BlockSegment.CAPACITY];
+
+    private int[] m_aux = new int[BlockSegment.CAPACITY];
+
+    /**
+     * Blocks of the run spanning many segments
+     */
+    private long[] m_runPositions = new long[BlockSegment.CAPACITY];
+
+    private short[] m_runBlocks = new short[BlockSegment.CAPACITY];
+
+    /**
+     * Sort the blocks of the segments using the placement order. Block runs
+     * continue across the segment borders, nothing is moved across the
+     * entries stored as objects.
+     *
+     * @param segments the segments (not read yet)
+     * @param order the placement order
+     * @param origin packed player position (used by the nearest first order)
+     */
+    public void sort(List<BlockSegment> segments, PlacementOrder order, long origin) {
+        int cnt = 0;
+        int startSegment = 0;
+        int startIdx = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            BlockSegment segment = segments.get(s);
+            final int size = segment.size();
+            for (int i = 0; i < size; i++) {
+                if (!segment.isBlock(i)) {
+                    sortRun(segments, startSegment, startIdx, cnt, order, origin);
+                    cnt = 0;
+                    continue;
+                }
+
+                if (cnt == 0) {
+                    startSegment = s;
+                    startIdx = i;
+                }
+                if (cnt == m_runPositions.length) {
+                    m_runPositions = Arrays.copyOf(m_runPositions, cnt * 2);
+                    m_runBlocks = Arrays.copyOf(m_runBlocks, cnt * 2);
+                }
+                m_runPositions[cnt] = segment.getPosition(i);
+                m_runBlocks[cnt] = segment.getBlockIndex(i);
+                cnt++;
+            }
+        }
+        sortRun(segments, startSegment, startIdx, cnt, order, origin);
+    }
+
+    /**
+     * Sort the collected block run and store it back to the segments
+     *
+     * @param segments the segments
+     * @param segmentIdx segment of the first block
+     * @param idx index of the first block
+     * @param cnt number of blocks
+     * @param order the placement order
+     * @param origin packed player position
+     */
+    private void sortRun(List<BlockSegment> segments, int segmentIdx, int idx, int cnt,
+            PlacementOrder order, long origin) {
+        if (cnt < 2) {
+            return;
+        }
+
+        sort(m_runPositions, m_runBlocks, 0, cnt, order, origin);
+
+        BlockSegment segment = segments.get(segmentIdx);
+        for (int i = 0; i < cnt; i++, idx++) {
+            if (idx == segment.size()) {
+                segment = segments.get(++segmentIdx);
+                idx = 0;
+            }
+            segment.setBlock(idx, m_runPositions[i], m_runBlocks[i]);
+        }
+    }
+
+    /**
+     * Make sure the buffers can hold the entries
+     *
+     * @param cnt number of entries
+     */
+    private void ensureCapacity(int cnt) {
+        if (m_positions.length >= cnt) {
+            return;
+        }
+
+        int size = Math.max(cnt, m_positions.length * 2);
+        m_positions = new long[size];
+        m_blocks = new short[size];
+        m_groups = new int[size];
+        m_offsets = new int[size + 1];
+        m_keys = new long[size];
+        m_index = new int[size];
+        m_aux = new int[size];
+    }
+
+    /**
+     * Stable sort the blocks in range using the placement order
+     *
+     * @param positions packed positions
+     * @param blocks block indices
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param order the placement order
+     * @param origin packed player position (used by the nearest first order)
+     */
+    public void sort(long[] positions, short[] blocks, int from, int to,
+            PlacementOrder order, long origin) {
+        ensureCapacity(to - from);
+        if (order == PlacementOrder.Chunk) {
+            groupByChunk(positions, blocks, from, to);
+            return;
+        }
+
+        final int cnt = to - from;
+        for (int i = 0; i < cnt; i++) {
+            m_keys[i] = getKey(order, positions[from + i], origin);
+            m_index[i] = i;
+        }
+
+        int[] index = mergeSort(cnt);
+        for (int i = 0; i < cnt; i++) {
+            m_positions[i] = positions[from + index[i]];
+            m_blocks[i] = blocks[from + index[i]];
+        }
+
+        System.arraycopy(m_positions, 0, positions, from, cnt);
+        System.arraycopy(m_blocks, 0, blocks, from, cnt);
+    }
+
+    /**
+     * Stable sort the indices by the keys (unsigned)
+     *
+     * @param cnt number of entries
+     * @return the sorted indices
+     */
+    private int[] mergeSort(int cnt) {
+        final long[] keys = m_keys;
+        int[] src = m_index;
+        int[] dst = m_aux;
+        for (int width = 1; width < cnt; width <<= 1) {
+            for (int lo = 0; lo < cnt; lo += width << 1) {
+                int mid = Math.min(lo + width, cnt);
+                int hi = Math.min(lo + (width << 1), cnt);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    dst[k++] = Long.compareUnsigned(keys[src[j]], keys[src[i]]) < 0 ? src[j++] : src[i++];
+                }
+                while (i < mid) {
+                    dst[k++] = src[i++];
+                }
+                while (j < hi) {
+                    dst[k++] = src[j++];
+                }
+            }
+
+            int[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        return src;
+    }
+
+    /**
+     * Get the sort key of the block
+     *
+     * @param order the placement order
+     * @param pos packed block position
+     * @param origin packed player position
+     * @return the key (unsigned)
+     */
+    private static long getKey(PlacementOrder order, long pos, long origin) {
+        final int x = PackedPosition.getX(pos);
+        final int y = PackedPosition.getY(pos);
+        final int z = PackedPosition.getZ(pos);
+        switch (order) {
+            case Morton:
+                return morton(x >> 4, z >> 4);
+            case BottomUp:
+                return ((long) y << 44) | morton(x >> 4, z >> 4);
+            case TopDown:
+                return (morton(x >> 4, z >> 4) << 20) | ((x & 0xf) << 16) | ((z & 0xf) << 12) | (0xfff - y);
+            case Nearest:
+                long dx = x - PackedPosition.getX(origin);
+                long dy = y - PackedPosition.getY(origin);
+                long dz = z - PackedPosition.getZ(origin);
+                return dx * dx + dy * dy + dz * dz;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Interleave the chunk coordinates (Z-order curve)
+     *
+     * @param cx chunk X
+     * @param cz chunk Z
+     * @return 44 bit Morton code
+     */
+    private static long morton(int cx, int cz) {
+        return spread(cx + (1 << 21)) | (spread(cz + (1 << 21)) << 1);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0x3fffffL;
+        x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+        x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Stable group the blocks in range by chunk (counting sort), chunks are
+     * ordered by their first block
+     *
+     * @param positions packed positions
+     * @param blocks block indices
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     */
+    public void groupByChunk(long[] positions, short[] blocks, int from, int to) {
+        ensureCapacity(to - from);
+        final LongIntHashMap chunks = m_chunks;
+        final int[] groups = m_groups;
+        final int[] offsets = m_offsets;
+
+        chunks.clear();
+        int groupCnt = 0;
+        for (int i = from; i < to; i++) {
+            long chunk = PackedPosition.getChunkKey(positions[i]);
+            int group = chunks.get(chunk, -1);
+            if (group < 0) {
+                group = groupCnt++;
+                chunks.put(chunk, group);
+                offsets[group + 1] = 0;
+            }
+            groups[i - from] = group;
+            offsets[group + 1]++;
+        }
+
+        if (groupCnt < 2) {
+            return;
+        }
+
+        offsets[0] = from;
+        for (int i = 1; i <= groupCnt; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+
+        for (int i = from; i < to; i++) {
+            int dst = offsets[groups[i - from]]++;
+            m_positions[dst - from] = positions[i];
+            m_blocks[dst - from] = blocks[i];
+        }
+
+        System.arraycopy(m_positions, 0, positions, from, to - from);
+        System.arraycopy(m_blocks, 0, blocks, from, to - from);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.blocksplacer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.primesoft.mcpainter.MCPainterMain;
+import org.primesoft.mcpainter.utils.BaseBlock;
+import org.primesoft.mcpainter.utils.LongIntHashMap;
+
+/**
+ * Removes the blocks that are already present in the world. The world is
+ * compared using chunk snapshots taken on the main thread, the comparison
+ * itself runs on the calling (async) thread.
+ *
+ * @author SBPrime
+ */
+class WorldDiff {
+
+    private final MCPainterMain m_plugin;
+
+    private final World m_world;
+
+    /**
+     * Chunks that already contain queued blocks from this job
+     */
+    private final Set<Long> m_queuedChunks = new HashSet<>();
+
+    WorldDiff(MCPainterMain plugin, World world) {
+        m_plugin = plugin;
+        m_world = world;
+    }
+
+    /**
+     * Remove the unchanged blocks. The world is only compared when no other
+     * job has queued entries (of any player), otherwise the queued blocks could
+     * change it after the snapshot is taken.
+     *
+     * @param segments the segments to filter
+     * @param queued number of entries queued by the other jobs
+     */
+    public void filter(List<BlockSegment> segments, int queued) {
+        try {
+            if (queued > 0) {
+                return;
+            }
+
+            final LongIntHashMap writes = new LongIntHashMap();
+            final Set<Long> chunks = new HashSet<>();
+            for (BlockSegment segment : segments) {
+                for (int i = 0; i < segment.size(); i++) {
+                    if (!segment.isBlock(i)) {
+                        continue;
+                    }
+
+                    long pos = segment.getPosition(i);
+                    writes.put(pos, writes.get(pos, 0) + 1);
+
+                    long chunk = PackedPosition.getChunkKey(pos);
+                    if (!m_queuedChunks.contains(chunk)) {
+                        chunks.add(chunk);
+                    }
+                }
+            }
+
+            if (chunks.isEmpty()) {
+                return;
+            }
+
+            final Map<Long, ChunkSnapshot> snapshots = getSnapshots(chunks);
+            if (snapshots.isEmpty()) {
+                return;
+            }
+
+            final int maxHeight = m_world.getMaxHeight();
+            for (BlockSegment segment : segments) {
+                segment.removeIf(i -> {
+                    if (!segment.isBlock(i)) {
+                        return false;
+                    }
+
+                    long pos = segment.getPosition(i);
+                    ChunkSnapshot snapshot = snapshots.get(PackedPosition.getChunkKey(pos));
+                    return snapshot != null && writes.get(pos, 0) == 1
+                            && isUnchanged(snapshot, pos, segment.getBlock(i), maxHeight);
+                });
+            }
+        } finally {
+            for (BlockSegment segment : segments) {
+                for (int i = 0; i < segment.size(); i++) {
+                    long chunk = segment.isBlock(i) ? PackedPosition.getChunkKey(segment.getPosition(i))
+                            : segment.get(i).getChunkKey();
+                    if (chunk != ChunkKey.NONE) {
+                        m_queuedChunks.add(chunk);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if the world already contains the block
+     *
+     * @param snapshot the chunk snapshot
+     * @param pos packed block position
+     * @param block the new block
+     * @param maxHeight world height
+     * @return
+     */
+    private static boolean isUnchanged(ChunkSnapshot snapshot, long pos, BaseBlock block, int maxHeight) {
+        int y = PackedPosition.getY(pos);
+        if (y >= maxHeight) {
+            return false;
+        }
+
+        return block.Data.equals(snapshot.getBlockData(PackedPosition.getX(pos) & 0xf, y,
+                PackedPosition.getZ(pos) & 0xf));
+    }
+
+    /**
+     * Take the snapshots of the loaded chunks
+     *
+     * @param chunks chunks to capture
+     * @return the snapshots
+     */
+    private Map<Long, ChunkSnapshot> getSnapshots(final Set<Long> chunks) {
+        if (Bukkit.isPrimaryThread()) {
+            return takeSnapshots(chunks);
+        }
+
+        try {
+            return m_plugin.getServer().getScheduler().callSyncMethod(m_plugin,
+                    () -> takeSnapshots(chunks)).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            MCPainterMain.log("Unable to capture the chunks: interrupted");
+            return new HashMap<>();
+        } catch (ExecutionException | CancellationException ex) {
+            //The sync task fails or is cancelled when the plugin is disabled
+            MCPainterMain.log("Unable to capture the chunks: " + ex.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Take the snapshots of the loaded chunks (main thread)
+     *
+     * @param chunks chunks to capture
+     * @return the snapshots
+     */
+    private Map<Long, ChunkSnapshot> takeSnapshots(Set<Long> chunks) {
+        Map<Long, ChunkSnapshot> result = new HashMap<>();
+        for (long chunk : chunks) {
+            int cx = ChunkKey.getX(chunk);
+            int cz = ChunkKey.getZ(chunk);
+            if (m_world.isChunkLoaded(cx, cz)) {
+                result.put(chunk, m_world.getChunkAt(cx, cz).getChunkSnapshot());
+            }
+        }
+        return result;
+    }
+}
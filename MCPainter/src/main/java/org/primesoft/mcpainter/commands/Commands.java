@@ -45,6 +45,7 @@ public final class Commands {
     public final static String COMMAND_FILTER = "Filter";
     public final static String COMMAND_MOB = "Mob";
     public final static String COMMAND_PALETTE = "Palette";
+    public final static String COMMAND_ORDER = "Order";
     public final static String COMMAND_RENDER = "Render";
     public final static String COMMAND_UNDO = "Undo";
     public final static String ALT_STATUE = "/Statue";
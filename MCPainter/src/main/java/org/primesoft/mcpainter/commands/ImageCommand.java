@@ -28,6 +28,7 @@ import org.primesoft.mcpainter.utils.Orientation;
 import org.primesoft.mcpainter.utils.Utils;
 import java.awt.image.BufferedImage;
 import org.primesoft.mcpainter.configuration.ConfigProvider;
+import org.primesoft.mcpainter.configuration.OperationType;
 import org.primesoft.mcpainter.drawing.IColorMap;
 import org.primesoft.mcpainter.drawing.filters.FilterManager;
 import org.primesoft.mcpainter.drawing.ImageHelper;
@@ -100,7 +101,9 @@ public class ImageCommand implements Runnable {
                 return;
             }
 
-            img = fm.applyFilters(img, m_colorMap);
+            int[] pixels = img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+            IColorMap colorMap = m_colorMap.prune(pixels, OperationType.Image);
+            img = fm.applyFilters(img, colorMap);
 
             int hh = img.getHeight();
             int ww = img.getWidth();
@@ -112,7 +115,7 @@ public class ImageCommand implements Runnable {
 
             MCPainterMain.say(m_player, "Drawing image...");
             BlockLoger loger = new BlockLoger(m_player, m_lSession, m_session, m_sender);
-            ImageHelper.drawImage(loger, m_colorMap, img, position, m_orientation);
+            ImageHelper.drawImage(loger, colorMap, img, position, m_orientation);
 
             loger.logMessage("Drawing image done.");
             loger.logEndSession();
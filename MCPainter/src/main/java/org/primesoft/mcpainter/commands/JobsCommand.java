@@ -24,6 +24,7 @@
 package org.primesoft.mcpainter.commands;
 
 import org.primesoft.mcpainter.blocksplacer.BlockPlacer;
+import org.primesoft.mcpainter.blocksplacer.PlacerJob;
 import org.primesoft.mcpainter.Help;
 import org.primesoft.mcpainter.PermissionManager;
 import org.primesoft.mcpainter.MCPainterMain;
@@ -37,13 +38,15 @@ import org.bukkit.entity.Player;
 public class JobsCommand {
 
     public static void Execte(MCPainterMain sender, Player player, String[] args) {
-        if (args.length < 1 || args.length > 2) {
+        if (args.length < 1 || args.length > 3) {
             Help.ShowHelp(player, Commands.COMMAND_JOBS);
             return;
         }
 
         BlockPlacer bPlacer = sender.getBlockPlacer();
-        if (args.length == 1) {
+        if (args.length == 3) {
+            changeJob(bPlacer, player, args[1], args[2]);
+        } else if (args.length == 1) {
             if (!PermissionManager.isAllowed(player, PermissionManager.Perms.Jobs_Self)) {
                 MCPainterMain.say(player, ChatColor.RED + "You have no permissions to do that.");
                 return;
@@ -52,6 +55,7 @@ public class JobsCommand {
             int cnt = bPlacer.getPlayerEvents(player.getName());
             MCPainterMain.say(player, ChatColor.YELLOW + "You have " + ChatColor.WHITE + cnt
                     + ChatColor.YELLOW + " block operations queued.");
+            showJobs(bPlacer, player, player.getName());
         } else {
             String arg = args[1];
             if (arg.startsWith("u:")) {
@@ -65,6 +69,7 @@ public class JobsCommand {
                 MCPainterMain.say(player, ChatColor.YELLOW + "Player " + ChatColor.BLUE
                         + user + ChatColor.YELLOW + " has " + ChatColor.WHITE + cnt
                         + ChatColor.YELLOW + " block operations queued.");
+                showJobs(bPlacer, player, user);
             } else {
                 if (!arg.toLowerCase().equalsIgnoreCase("all")) {
                     Help.ShowHelp(player, Commands.COMMAND_JOBS);
@@ -87,7 +92,80 @@ public class JobsCommand {
                                 + ChatColor.YELLOW + " block operations queued.");
                     }
                 }
+
+                long cost = bPlacer.getEntryCost();
+                if (cost > 0) {
+                    MCPainterMain.say(player, ChatColor.YELLOW + "Average operation time: "
+                            + ChatColor.WHITE + String.format("%.1f", cost / 1000.0)
+                            + ChatColor.YELLOW + " us");
+                }
             }
         }
     }
+
+    /**
+     * Display the player jobs
+     *
+     * @param bPlacer
+     * @param player
+     * @param user
+     */
+    private static void showJobs(BlockPlacer bPlacer, Player player, String user) {
+        for (PlacerJob job : bPlacer.getJobs(user)) {
+            MCPainterMain.say(player, ChatColor.YELLOW + " Job " + ChatColor.WHITE + job.getId()
+                    + ChatColor.YELLOW + " (" + job.getState().name().toLowerCase() + "): "
+                    + ChatColor.WHITE + job.size() + ChatColor.YELLOW + " operations");
+        }
+    }
+
+    /**
+     * Cancel, pause or resume job
+     *
+     * @param bPlacer
+     * @param player
+     * @param action
+     * @param id
+     */
+    private static void changeJob(BlockPlacer bPlacer, Player player, String action, String id) {
+        PlacerJob job;
+        try {
+            job = bPlacer.getJob(Integer.parseInt(id));
+        } catch (NumberFormatException ex) {
+            Help.ShowHelp(player, Commands.COMMAND_JOBS);
+            return;
+        }
+
+        if (job == null) {
+            MCPainterMain.say(player, ChatColor.RED + "Job " + ChatColor.WHITE
+                    + id + ChatColor.RED + " not found.");
+            return;
+        }
+
+        PermissionManager.Perms perm = player.getName().equals(job.getPlayer())
+                ? PermissionManager.Perms.Purge_Self : PermissionManager.Perms.Purge_Other;
+        if (!PermissionManager.isAllowed(player, perm)) {
+            MCPainterMain.say(player, ChatColor.RED + "You have no permissions to do that.");
+            return;
+        }
+
+        boolean changed;
+        if (action.equalsIgnoreCase("cancel")) {
+            changed = job.cancel();
+        } else if (action.equalsIgnoreCase("pause")) {
+            changed = job.pause();
+        } else if (action.equalsIgnoreCase("resume")) {
+            changed = job.resume();
+        } else {
+            Help.ShowHelp(player, Commands.COMMAND_JOBS);
+            return;
+        }
+
+        if (changed) {
+            MCPainterMain.say(player, ChatColor.YELLOW + "Job " + ChatColor.WHITE + id
+                    + ChatColor.YELLOW + " is " + job.getState().name().toLowerCase() + ".");
+        } else {
+            MCPainterMain.say(player, ChatColor.RED + "Job " + ChatColor.WHITE + id
+                    + ChatColor.RED + " is " + job.getState().name().toLowerCase() + ".");
+        }
+    }
 }
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.commands;
+
+import org.primesoft.mcpainter.Help;
+import org.primesoft.mcpainter.PermissionManager;
+import org.primesoft.mcpainter.MCPainterMain;
+import org.primesoft.mcpainter.blocksplacer.PlacementOrder;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class OrderCommand {
+
+    public static void Execte(MCPainterMain sender, Player player, String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            Help.ShowHelp(player, Commands.COMMAND_ORDER);
+            return;
+        }
+
+        if (args.length == 1) {
+            StringBuilder sb = new StringBuilder();
+            PlacementOrder[] orders = PlacementOrder.values();
+            for (int i = 0; i < orders.length; i++) {
+                if (i != 0) {
+                    sb.append(", ");
+                }
+                sb.append(orders[i].name().toLowerCase());
+            }
+            MCPainterMain.say(player, ChatColor.YELLOW + "Known orders: " + ChatColor.WHITE
+                    + sb);
+            MCPainterMain.say(player, ChatColor.YELLOW + "Current order: " + ChatColor.WHITE
+                    + sender.getPlacementOrder(player).name().toLowerCase());
+            return;
+        }
+
+        if (!PermissionManager.isAllowed(player, PermissionManager.Perms.Order_change)) {
+            MCPainterMain.say(player, ChatColor.RED + "You have no permissions to do that.");
+            return;
+        }
+
+        PlacementOrder order = PlacementOrder.parse(args[1]);
+        if (order == null) {
+            MCPainterMain.say(player, ChatColor.RED + "Order " + ChatColor.WHITE
+                    + args[1] + ChatColor.RED + " not found.");
+        } else {
+            sender.setPlacementOrder(player.getName(), order);
+            MCPainterMain.say(player, ChatColor.YELLOW + "Order set to " + ChatColor.WHITE
+                    + order.name().toLowerCase());
+        }
+    }
+}
@@ -199,6 +199,7 @@ public class RenderCommand implements Runnable {
         final Model model = WavefrontObj.load(ConfigProvider.getModelFolder(), m_modeFile);
         if (model == null) {
             MCPainterMain.say(m_player, ChatColor.RED + "Error loading model " + ChatColor.YELLOW + m_modeFile);
+            loger.discard();
             return;
         }
 
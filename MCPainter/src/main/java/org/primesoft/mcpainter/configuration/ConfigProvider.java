@@ -28,6 +28,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import org.primesoft.mcpainter.MCPainterMain;
+import org.primesoft.mcpainter.blocksplacer.PhysicsMode;
+import org.primesoft.mcpainter.blocksplacer.PlacementOrder;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
 
@@ -69,10 +71,26 @@ public class ConfigProvider {
 
     private static File m_dataFolder;
 
+    private static File m_journalFolder;
+
+    private static File m_undoFolder;
+
+    private static long m_undoMemory;
+
+    private static boolean m_journal;
+
+    private static PlacementOrder m_placementOrder;
+
+    private static PhysicsMode m_physicsMode;
+
     private static long m_interval;
 
     private static int m_blocksCnt;
 
+    private static long m_timeBudget;
+
+    private static boolean m_skipUnchanged;
+
     private static String m_configVersion;
     
     private static String m_defaultPalette;
@@ -81,6 +99,10 @@ public class ConfigProvider {
 
     private static boolean m_logBlocks;
 
+    private static int m_logBuffer;
+
+    private static boolean m_logDropOverflow;
+
     public static String getConfigVersion() {
         return m_configVersion;
     }
@@ -191,6 +213,24 @@ public class ConfigProvider {
         return m_logBlocks;
     }
 
+    /**
+     * Size of the block log buffer (number of blocks)
+     *
+     * @return
+     */
+    public static int getLogBuffer() {
+        return m_logBuffer;
+    }
+
+    /**
+     * Should the blocks be dropped from the log when the log buffer is full
+     *
+     * @return
+     */
+    public static boolean getLogDropOverflow() {
+        return m_logDropOverflow;
+    }
+
     /**
      * Is block perms checking enabled
      *
@@ -209,6 +249,24 @@ public class ConfigProvider {
         return m_blocksCnt;
     }
 
+    /**
+     * Get the time (in nanoseconds) the block placer can spend every render
+     *
+     * @return time budget, 0 if the block count should be used
+     */
+    public static long getTimeBudget() {
+        return m_timeBudget;
+    }
+
+    /**
+     * Should the blocks already present in the world be skipped
+     *
+     * @return
+     */
+    public static boolean getSkipUnchanged() {
+        return m_skipUnchanged;
+    }
+
     /**
      * Is the configuration up to date
      *
@@ -218,6 +276,61 @@ public class ConfigProvider {
         return m_isConfigUpdate;
     }
 
+    /**
+     * Folder where the job journals are stored
+     *
+     * @return
+     */
+    public static File getJournalFolder() {
+        return m_journalFolder;
+    }
+
+    /**
+     * Folder where the undo logs are moved when they are too large
+     *
+     * @return
+     */
+    public static File getUndoFolder() {
+        return m_undoFolder;
+    }
+
+    /**
+     * Memory (in bytes) the player undo logs can use before they are moved
+     * to the undo folder
+     *
+     * @return
+     */
+    public static long getUndoMemory() {
+        return m_undoMemory;
+    }
+
+    /**
+     * Are the drawing jobs stored in the journal
+     *
+     * @return
+     */
+    public static boolean getJournal() {
+        return m_journal;
+    }
+
+    /**
+     * The default block placement order
+     *
+     * @return
+     */
+    public static PlacementOrder getPlacementOrder() {
+        return m_placementOrder;
+    }
+
+    /**
+     * How the block physics is applied when placing blocks
+     *
+     * @return
+     */
+    public static PhysicsMode getPhysicsMode() {
+        return m_physicsMode;
+    }
+
     /**
      * The mod (jar) folder
      */
@@ -274,6 +387,14 @@ public class ConfigProvider {
         if (!m_dataFolder.exists()) {
             m_dataFolder.mkdir();
         }
+        m_journalFolder = new File(m_pluginFolder, "journal");
+        if (!m_journalFolder.exists()) {
+            m_journalFolder.mkdir();
+        }
+        m_undoFolder = new File(m_pluginFolder, "undo");
+        if (!m_undoFolder.exists()) {
+            m_undoFolder.mkdir();
+        }
 
         ConfigurationSection mainSection = config.getConfigurationSection("mcpainter");
         if (mainSection == null) {
@@ -311,9 +432,13 @@ public class ConfigProvider {
         if (bhSection == null) {
             m_logBlocks = true;
             m_checkAccess = false;
+            m_logBuffer = 65536;
+            m_logDropOverflow = false;
         } else {
             m_logBlocks = bhSection.getBoolean("logBlocks", true);
             m_checkAccess = bhSection.getBoolean("checkAccess", false);
+            m_logBuffer = bhSection.getInt("logBuffer", 65536);
+            m_logDropOverflow = "drop".equalsIgnoreCase(bhSection.getString("logOverflow", "wait"));
         }
     }
 
@@ -349,11 +474,35 @@ public class ConfigProvider {
             m_interval = 15;
             m_queueSoftLimit = 100000;
             m_queueHardLimit = 100000;
+            m_timeBudget = 0;
+            m_skipUnchanged = false;
+            m_journal = false;
+            m_undoMemory = 32L << 20;
+            m_placementOrder = PlacementOrder.Chunk;
+            m_physicsMode = PhysicsMode.Normal;
         } else {
             m_blocksCnt = renderSection.getInt("blocks", 1000);
             m_interval = renderSection.getInt("interval", 15);
             m_queueSoftLimit = renderSection.getInt("queue-limit-soft", 100000);
             m_queueHardLimit = renderSection.getInt("queue-limit-hard", 200000);
+            m_timeBudget = (long) (Math.max(0, renderSection.getDouble("time-budget", 0)) * 1000000);
+            m_skipUnchanged = renderSection.getBoolean("skip-unchanged", false);
+            m_journal = renderSection.getBoolean("journal", false);
+            m_undoMemory = (long) (Math.max(0, renderSection.getDouble("undo-memory", 32)) * (1 << 20));
+
+            String order = renderSection.getString("order", "chunk");
+            m_placementOrder = PlacementOrder.parse(order);
+            if (m_placementOrder == null) {
+                MCPainterMain.log("Unknown placement order " + order + ", using chunk.");
+                m_placementOrder = PlacementOrder.Chunk;
+            }
+
+            String physics = renderSection.getString("physics", "normal");
+            m_physicsMode = PhysicsMode.parse(physics);
+            if (m_physicsMode == null) {
+                MCPainterMain.log("Unknown physics mode " + physics + ", using normal.");
+                m_physicsMode = PhysicsMode.Normal;
+            }
         }
     }
 
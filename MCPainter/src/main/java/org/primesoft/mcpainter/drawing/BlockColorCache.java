@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import org.primesoft.mcpainter.MCPainterMain;
+import org.primesoft.mcpainter.texture.TextureDescription;
+import org.primesoft.mcpainter.utils.ExceptionHelper;
+
+/**
+ * Persisted average block colors, keyed by the texture content checksum and
+ * the grayscale tint
+ *
+ * @author SBPrime
+ */
+public class BlockColorCache {
+
+    /**
+     * The cache file
+     */
+    private final File m_file;
+
+    /**
+     * The cached colors (ARGB hex strings)
+     */
+    private final Properties m_colors = new Properties();
+
+    /**
+     * Cache contains entries not stored in the file
+     */
+    private boolean m_isDirty;
+
+    public BlockColorCache(File file) {
+        m_file = file;
+    }
+
+    /**
+     * Create the cache key
+     *
+     * @param checksum texture file checksum
+     * @param td texture description
+     * @param tint the grayscale color (or null)
+     * @return
+     */
+    public static String getKey(String checksum, TextureDescription td, int[] tint) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(checksum);
+        sb.append(":");
+        sb.append(td.getColumn());
+        sb.append("x");
+        sb.append(td.getRow());
+        sb.append(":");
+        if (tint != null) {
+            sb.append(tint[0]);
+            sb.append(",");
+            sb.append(tint[1]);
+        } else {
+            sb.append("-");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Load the cache file
+     */
+    public synchronized void load() {
+        m_colors.clear();
+        m_isDirty = false;
+        if (m_file == null || !m_file.isFile()) {
+            return;
+        }
+
+        try (InputStream is = new FileInputStream(m_file)) {
+            m_colors.load(is);
+        } catch (IOException ex) {
+            ExceptionHelper.printException(ex, "Unable to load the block color cache");
+            m_colors.clear();
+        }
+    }
+
+    /**
+     * Store the new entries in the cache file
+     */
+    public synchronized void save() {
+        if (!m_isDirty || m_file == null) {
+            return;
+        }
+
+        try (OutputStream os = new FileOutputStream(m_file)) {
+            m_colors.store(os, "MCPainter block colors");
+            m_isDirty = false;
+        } catch (IOException ex) {
+            ExceptionHelper.printException(ex, "Unable to save the block color cache");
+        }
+    }
+
+    /**
+     * Get the cached color
+     *
+     * @param key the cache key
+     * @return ARGB color or null if not cached
+     */
+    public synchronized Integer get(String key) {
+        String value = m_colors.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return (int) Long.parseLong(value, 16);
+        } catch (NumberFormatException ex) {
+            MCPainterMain.log("Invalid block color cache entry: " + key);
+            return null;
+        }
+    }
+
+    /**
+     * Set the cached color
+     *
+     * @param key the cache key
+     * @param argb ARGB color
+     */
+    public synchronized void put(String key, int argb) {
+        m_colors.setProperty(key, String.format("%08x", argb));
+        m_isDirty = true;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+/**
+ * Coarse ARGB histogram of an image. The ARGB space is divided into 16x16x16x16
+ * cells, the histogram stores the occupied cells and is used to find the
+ * palette colors that can be the closest for any of the image colors.
+ *
+ * @author SBPrime
+ */
+public class ColorHistogram {
+
+    /**
+     * Bits used per channel
+     */
+    private static final int BITS = 4;
+
+    private static final int SHIFT = 8 - BITS;
+
+    private static final int CELL = 1 << SHIFT;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * Bounds comparison tolerance
+     */
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * The occupied cells bitmap
+     */
+    private final long[] m_cells = new long[1 << (4 * BITS - 6)];
+
+    /**
+     * Number of occupied cells
+     */
+    private int m_count;
+
+    /**
+     * Create the histogram
+     *
+     * @param argb the image colors
+     */
+    public ColorHistogram(int[] argb) {
+        for (int c : argb) {
+            int cell = cell(c);
+            long bit = 1L << cell;
+            if ((m_cells[cell >> 6] & bit) == 0) {
+                m_cells[cell >> 6] |= bit;
+                m_count++;
+            }
+        }
+    }
+
+    /**
+     * Number of occupied cells
+     *
+     * @return
+     */
+    public int getCount() {
+        return m_count;
+    }
+
+    /**
+     * Is the color cell occupied
+     *
+     * @param argb color
+     * @return
+     */
+    public boolean contains(int argb) {
+        int cell = cell(argb);
+        return (m_cells[cell >> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Is the color cell occupied
+     *
+     * @param r red
+     * @param g green
+     * @param b blue
+     * @param a alpha
+     * @return false for colors out of range
+     */
+    public boolean contains(int r, int g, int b, int a) {
+        if (((r | g | b | a) & ~0xff) != 0) {
+            return false;
+        }
+
+        return contains((a << 24) | (r << 16) | (g << 8) | b);
+    }
+
+    /**
+     * Find the palette colors that can be the closest (by
+     * ImageHelper.colorDistance) for any color in the occupied cells
+     *
+     * @param palette the palette colors
+     * @return the palette indices, in the palette order
+     */
+    public int[] getCandidates(int[] palette) {
+        final int cnt = palette.length;
+        final boolean[] used = new boolean[cnt];
+        final double[] upper = new double[cnt];
+        int usedCnt = 0;
+
+        for (int word = 0; word < m_cells.length && usedCnt < cnt; word++) {
+            long bits = m_cells[word];
+            while (bits != 0 && usedCnt < cnt) {
+                int cell = (word << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                int a0 = ((cell >> (3 * BITS)) & MASK) << SHIFT;
+                int r0 = ((cell >> (2 * BITS)) & MASK) << SHIFT;
+                int g0 = ((cell >> BITS) & MASK) << SHIFT;
+                int b0 = (cell & MASK) << SHIFT;
+
+                double best = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < cnt; i++) {
+                    upper[i] = bound(palette[i], r0, g0, b0, a0, true);
+                    best = Math.min(best, upper[i]);
+                }
+
+                best = best * (1 + EPSILON) + EPSILON;
+                for (int i = 0; i < cnt; i++) {
+                    if (!used[i] && bound(palette[i], r0, g0, b0, a0, false) <= best) {
+                        used[i] = true;
+                        usedCnt++;
+                    }
+                }
+            }
+        }
+
+        int[] result = new int[usedCnt];
+        int pos = 0;
+        for (int i = 0; i < cnt; i++) {
+            if (used[i]) {
+                result[pos++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the histogram cell
+     *
+     * @param argb
+     * @return
+     */
+    private static int cell(int argb) {
+        return ((argb >>> (24 + SHIFT)) << (3 * BITS))
+                | (((argb >> (16 + SHIFT)) & MASK) << (2 * BITS))
+                | (((argb >> (8 + SHIFT)) & MASK) << BITS)
+                | ((argb >> SHIFT) & MASK);
+    }
+
+    /**
+     * Get the distance lower or upper bound between the palette color and
+     * the colors in the cell
+     *
+     * @param c palette color
+     * @param r0 cell red start
+     * @param g0 cell green start
+     * @param b0 cell blue start
+     * @param a0 cell alpha start
+     * @param upper calculate the upper bound
+     * @return
+     */
+    private static double bound(int c, int r0, int g0, int b0, int a0, boolean upper) {
+        final int red = (c >> 16) & 0xff;
+        final double dr = channelBound(r0, red, upper);
+        final double dg = channelBound(g0, (c >> 8) & 0xff, upper);
+        final double db = channelBound(b0, c & 0xff, upper);
+
+        final double rmeanMin = (r0 + red) / 2.0;
+        final double rmeanMax = (r0 + CELL - 1 + red) / 2.0;
+        final double weightR = 2 + (upper ? rmeanMax : rmeanMin) / 256.0;
+        final double weightB = 2 + (255 - (upper ? rmeanMin : rmeanMax)) / 256.0;
+
+        final int alpha = c >>> 24;
+        final int a1 = a0 + CELL - 1;
+        final double da;
+        if (upper) {
+            da = Math.max(ImageHelper.alphaDistance(a0, alpha), ImageHelper.alphaDistance(a1, alpha));
+        } else if (alpha > a1) {
+            da = ImageHelper.alphaDistance(a1, alpha);
+        } else if (alpha < a0) {
+            da = ImageHelper.alphaDistance(a0, alpha);
+        } else {
+            da = 0;
+        }
+
+        return Math.sqrt(weightR * dr * dr + 4.0 * dg * dg + weightB * db * db) + da;
+    }
+
+    /**
+     * Get the minimum or maximum channel difference in the cell
+     *
+     * @param v0 cell start
+     * @param v palette value
+     * @param upper calculate the maximum
+     * @return
+     */
+    private static double channelBound(int v0, int v, boolean upper) {
+        final int v1 = v0 + CELL - 1;
+        if (upper) {
+            return Math.max(Math.abs(v0 - v), Math.abs(v1 - v));
+        }
+        if (v >= v0 && v <= v1) {
+            return 0;
+        }
+        return Math.min(Math.abs(v0 - v), Math.abs(v1 - v));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Opaque color to block lookup table. The RGB cube is divided into 32x32x32
+ * cells, every cell stores the blocks that can be the closest for any color
+ * in the cell (usually one). The candidates are found using the distance
+ * lower and upper bounds for the cell.
+ *
+ * @author SBPrime
+ */
+class ColorLookup {
+
+    /**
+     * Bits used per channel
+     */
+    private static final int BITS = 5;
+
+    private static final int SHIFT = 8 - BITS;
+
+    private static final int CELL = 1 << SHIFT;
+
+    private static final int SIZE = 1 << BITS;
+
+    /**
+     * Bounds comparison tolerance
+     */
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * The blocks, index 0 is air
+     */
+    private final DrawingBlock[] m_blocks;
+
+    /**
+     * Block colors
+     */
+    private final int[] m_red;
+    private final int[] m_green;
+    private final int[] m_blue;
+    private final int[] m_alpha;
+
+    /**
+     * Block index or -1 - candidates offset
+     */
+    private final int[] m_cells;
+
+    /**
+     * Candidate lists: count followed by block indices
+     */
+    private final int[] m_candidates;
+
+    /**
+     * Create lookup table
+     *
+     * @param blocks the blocks, index 0 must be air
+     */
+    ColorLookup(DrawingBlock[] blocks) {
+        final int cnt = blocks.length;
+        m_blocks = blocks;
+        m_red = new int[cnt];
+        m_green = new int[cnt];
+        m_blue = new int[cnt];
+        m_alpha = new int[cnt];
+        for (int i = 0; i < cnt; i++) {
+            Color c = blocks[i].getColor();
+            m_red[i] = c.getRed();
+            m_green[i] = c.getGreen();
+            m_blue[i] = c.getBlue();
+            m_alpha[i] = c.getAlpha();
+        }
+
+        m_cells = new int[SIZE * SIZE * SIZE];
+        int[] candidates = new int[SIZE * SIZE * SIZE];
+        int candidatesSize = 0;
+        final double[] min = new double[cnt];
+        final int[] found = new int[cnt];
+        for (int cr = 0; cr < SIZE; cr++) {
+            for (int cg = 0; cg < SIZE; cg++) {
+                for (int cb = 0; cb < SIZE; cb++) {
+                    double best = Double.POSITIVE_INFINITY;
+                    for (int i = 0; i < cnt; i++) {
+                        min[i] = bound(i, cr << SHIFT, cg << SHIFT, cb << SHIFT, false);
+                        best = Math.min(best, bound(i, cr << SHIFT, cg << SHIFT, cb << SHIFT, true));
+                    }
+
+                    int foundCnt = 0;
+                    for (int i = 0; i < cnt; i++) {
+                        if (min[i] <= best + EPSILON) {
+                            found[foundCnt++] = i;
+                        }
+                    }
+
+                    final int cell = (cr << (2 * BITS)) | (cg << BITS) | cb;
+                    if (foundCnt == 1) {
+                        m_cells[cell] = found[0];
+                        continue;
+                    }
+
+                    if (candidatesSize + foundCnt + 1 > candidates.length) {
+                        candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2,
+                                candidatesSize + foundCnt + 1));
+                    }
+                    m_cells[cell] = -1 - candidatesSize;
+                    candidates[candidatesSize++] = foundCnt;
+                    System.arraycopy(found, 0, candidates, candidatesSize, foundCnt);
+                    candidatesSize += foundCnt;
+                }
+            }
+        }
+        m_candidates = Arrays.copyOf(candidates, candidatesSize);
+    }
+
+    /**
+     * Find the closest block for opaque color
+     *
+     * @param r
+     * @param g
+     * @param b
+     * @return
+     */
+    public DrawingBlock get(int r, int g, int b) {
+        int cell = m_cells[((r >> SHIFT) << (2 * BITS)) | ((g >> SHIFT) << BITS) | (b >> SHIFT)];
+        if (cell >= 0) {
+            return m_blocks[cell];
+        }
+
+        int pos = -1 - cell;
+        final int end = pos + 1 + m_candidates[pos];
+        DrawingBlock result = null;
+        double closest = Double.POSITIVE_INFINITY;
+        for (pos++; pos < end; pos++) {
+            int i = m_candidates[pos];
+            double dist = ImageHelper.colorDistance(r, g, b, 255,
+                    m_red[i], m_green[i], m_blue[i], m_alpha[i]);
+            if (result == null || dist < closest) {
+                result = m_blocks[i];
+                closest = dist;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the distance lower or upper bound between the block and opaque
+     * colors in the cell
+     *
+     * @param idx block index
+     * @param r0 cell red start
+     * @param g0 cell green start
+     * @param b0 cell blue start
+     * @param upper calculate the upper bound
+     * @return
+     */
+    private double bound(int idx, int r0, int g0, int b0, boolean upper) {
+        final int red = m_red[idx];
+        final double dr = channelBound(r0, red, upper);
+        final double dg = channelBound(g0, m_green[idx], upper);
+        final double db = channelBound(b0, m_blue[idx], upper);
+
+        final double rmeanMin = (r0 + red) / 2.0;
+        final double rmeanMax = (r0 + CELL - 1 + red) / 2.0;
+        final double weightR = 2 + (upper ? rmeanMax : rmeanMin) / 256.0;
+        final double weightB = 2 + (255 - (upper ? rmeanMin : rmeanMax)) / 256.0;
+
+        return Math.sqrt(weightR * dr * dr + 4.0 * dg * dg + weightB * db * db)
+                + ImageHelper.alphaDistance(255, m_alpha[idx]);
+    }
+
+    /**
+     * Get the minimum or maximum channel difference in the cell
+     *
+     * @param v0 cell start
+     * @param v block value
+     * @param upper calculate the maximum
+     * @return
+     */
+    private static double channelBound(int v0, int v, boolean upper) {
+        final int v1 = v0 + CELL - 1;
+        if (upper) {
+            return Math.max(Math.abs(v0 - v), Math.abs(v1 - v));
+        }
+        if (v >= v0 && v <= v1) {
+            return 0;
+        }
+        return Math.min(Math.abs(v0 - v), Math.abs(v1 - v));
+    }
+}
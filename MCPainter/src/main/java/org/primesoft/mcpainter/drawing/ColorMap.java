@@ -2,11 +2,14 @@ package org.primesoft.mcpainter.drawing;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.primesoft.mcpainter.configuration.BlockEntry;
 import org.primesoft.mcpainter.configuration.OperationType;
 import org.primesoft.mcpainter.drawing.filters.ColorPalette;
 import org.primesoft.mcpainter.drawing.filters.IColorPalette;
+import org.primesoft.mcpainter.drawing.filters.PrunedPalette;
 import org.primesoft.mcpainter.MCPainterMain;
 import org.primesoft.mcpainter.texture.TextureDescription;
 import org.primesoft.mcpainter.texture.TextureEntry;
@@ -24,13 +27,59 @@ public class ColorMap implements IColorMap {
     //public static final int ALPHA_THRESHOLD = 64;
     private final Boolean m_isInitialized;
     private final DrawingBlock[] m_blocks;
+    /**
+     * Color search structures (per operation type, created on first use)
+     */
+    private final AtomicReferenceArray<TypeEntry> m_types = new AtomicReferenceArray<>(OperationType.values().length);
+
+    /**
+     * The blocks available for operation type, index 0 is air
+     */
+    private static final class TypeEntry {
+
+        private final DrawingBlock[] m_blocks;
+
+        private final int[] m_colors;
+
+        /**
+         * Opaque color lookup table
+         */
+        private final ColorLookup m_lookup;
+
+        /**
+         * Translucent color search
+         */
+        private final ColorMatcher m_matcher;
+
+        /**
+         * The color palette (without air)
+         */
+        private final IColorPalette m_palette;
+
+        private TypeEntry(DrawingBlock[] blocks) {
+            int[] colors = new int[blocks.length];
+            Color[] palette = new Color[blocks.length - 1];
+            for (int i = 0; i < blocks.length; i++) {
+                colors[i] = blocks[i].getColor().getRGB();
+                if (i > 0) {
+                    palette[i - 1] = blocks[i].getColor();
+                }
+            }
+
+            m_blocks = blocks;
+            m_colors = colors;
+            m_lookup = new ColorLookup(blocks);
+            m_matcher = new ColorMatcher(colors);
+            m_palette = ColorPalette.create(palette);
+        }
+    }
 
     @Override
     public Boolean isInitialized() {
         return m_isInitialized;
     }
 
-    public ColorMap(TextureManager textureManager, Palette palette) {
+    public ColorMap(TextureManager textureManager, Palette palette, BlockColorCache cache) {
         if (textureManager == null) {
             m_blocks = new DrawingBlock[0];
             m_isInitialized = false;
@@ -52,42 +101,21 @@ public class ColorMap implements IColorMap {
                 TextureDescription tex = blockEntry.getTextureFile();
                 int[] grayscaleColor = blockEntry.getGrayscaleColor();
 
-                int sumR = 0;
-                int sumG = 0;
-                int sumB = 0;
-                int sumA = 0;
-                int cnt = 0;
-                TextureEntry img = textureManager.get(tex);
-                if (img == null) {
-                    MCPainterMain.log("Error processing block node " + blockEntry.toString());
-                    continue;
-                }
-
-                RawImage rawImage = img.getImages()[0];
-                boolean hasAlpha = rawImage.hasAlpha();
-                int textureRes = rawImage.getRes();
-                int[][] image = rawImage.getImage();
-                for (int i = 0; i < textureRes; i++) {
-                    for (int j = 0; j < textureRes; j++) {
-                        int rgb = image[i][j];
-                        Color c = new Color(rgb, hasAlpha);
-                        cnt++;
-                        if (grayscaleColor != null) {
-                            c = ImageHelper.getColor(c, grayscaleColor);
-                        }
-                        int r = c.getRed();
-                        int g = c.getGreen();
-                        int b = c.getBlue();
-                        int a = c.getAlpha();
-
-                        sumR += r;
-                        sumG += g;
-                        sumB += b;
-                        sumA += a;
+                String checksum = cache != null ? textureManager.getChecksum(tex) : null;
+                String key = checksum != null ? BlockColorCache.getKey(checksum, tex, grayscaleColor) : null;
+                Integer color = key != null ? cache.get(key) : null;
+                if (color == null) {
+                    color = getAverageColor(textureManager, tex, grayscaleColor);
+                    if (color == null) {
+                        MCPainterMain.log("Error processing block node " + blockEntry.toString());
+                        continue;
+                    }
+                    if (key != null) {
+                        cache.put(key, color);
                     }
                 }
 
-                drawingBlocks.add(new DrawingBlock(blockEntry, new Color(sumR / cnt, sumG / cnt, sumB / cnt, sumA / cnt)));
+                drawingBlocks.add(new DrawingBlock(blockEntry, new Color(color, true)));
             } catch (Exception ex) {
                 MCPainterMain.log("Error processing block node " + blockEntry.toString());
             }
@@ -105,6 +133,49 @@ public class ColorMap implements IColorMap {
         m_isInitialized = true;
     }
 
+    /**
+     * Calculate the average texture color
+     *
+     * @param textureManager
+     * @param tex the texture
+     * @param grayscaleColor the grayscale color (or null)
+     * @return ARGB color or null if texture not found
+     */
+    private static Integer getAverageColor(TextureManager textureManager,
+            TextureDescription tex, int[] grayscaleColor) {
+        TextureEntry img = textureManager.get(tex);
+        if (img == null) {
+            return null;
+        }
+
+        int sumR = 0;
+        int sumG = 0;
+        int sumB = 0;
+        int sumA = 0;
+        int cnt = 0;
+
+        RawImage rawImage = img.getImages()[0];
+        int alphaMask = rawImage.hasAlpha() ? 0 : 0xff000000;
+        int textureRes = rawImage.getRes();
+        int[][] image = rawImage.getImage();
+        for (int i = 0; i < textureRes; i++) {
+            for (int j = 0; j < textureRes; j++) {
+                int argb = image[i][j] | alphaMask;
+                cnt++;
+                if (grayscaleColor != null) {
+                    argb = ImageHelper.getColor(argb, grayscaleColor);
+                }
+
+                sumR += (argb >> 16) & 0xff;
+                sumG += (argb >> 8) & 0xff;
+                sumB += argb & 0xff;
+                sumA += (argb >>> 24);
+            }
+        }
+
+        return ((sumA / cnt) << 24) | ((sumR / cnt) << 16) | ((sumG / cnt) << 8) | (sumB / cnt);
+    }
+
     /**
      * Get block for color
      *
@@ -114,28 +185,108 @@ public class ColorMap implements IColorMap {
      */
     @Override
     public IDrawingBlock getBlockForColor(Color c, OperationType type) {
-        /*if (c.getAlpha() < ALPHA_THRESHOLD) {
-         return BlockEntry.AIR;
-         }*/
+        if (c == null) {
+            return DrawingBlock.AIR;
+        }
+
+        return getBlockForArgb(c.getRGB(), type);
+    }
+
+    /**
+     * Get block for packed ARGB color
+     *
+     * @param argb color
+     * @param type block operation type
+     * @return block entry
+     */
+    @Override
+    public IDrawingBlock getBlockForArgb(int argb, OperationType type) {
         if (!m_isInitialized) {
             return DrawingBlock.AIR;
         }
 
-        DrawingBlock closest = DrawingBlock.AIR;
-        double closestDistance = ImageHelper.colorDistance(c, BlockEntry.AIR_COLOR);
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        TypeEntry entry = getEntry(type);
+        if (a == 255) {
+            return entry.m_lookup.get(r, g, b);
+        }
+
+        return entry.m_blocks[entry.m_matcher.findClosest(r, g, b, a)];
+    }
 
-        for (DrawingBlock blockEntry : m_blocks) {
-            if (blockEntry.getType().contains(type)) {
-                double dist = ImageHelper.colorDistance(c, blockEntry.getColor());
+    /**
+     * Get blocks for packed ARGB colors
+     *
+     * @param argb colors
+     * @param result blocks, stored at the color index
+     * @param offset first color
+     * @param count number of colors
+     * @param type block operation type
+     */
+    @Override
+    public void getBlocksForArgb(int[] argb, IDrawingBlock[] result, int offset, int count,
+            OperationType type) {
+        if (!m_isInitialized) {
+            Arrays.fill(result, offset, offset + count, DrawingBlock.AIR);
+            return;
+        }
 
-                if (dist < closestDistance) {
-                    closest = blockEntry;
-                    closestDistance = dist;
+        TypeEntry entry = getEntry(type);
+        int[] translucent = null;
+        int[] positions = null;
+        int cnt = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int c = argb[i];
+            if ((c >>> 24) == 255) {
+                result[i] = entry.m_lookup.get((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff);
+            } else {
+                if (translucent == null) {
+                    translucent = new int[count];
+                    positions = new int[count];
                 }
+                translucent[cnt] = c;
+                positions[cnt] = i;
+                cnt++;
             }
         }
 
-        return closest;
+        if (cnt == 0) {
+            return;
+        }
+
+        int[] closest = new int[cnt];
+        entry.m_matcher.findClosest(translucent, 0, cnt, closest);
+        for (int i = 0; i < cnt; i++) {
+            result[positions[i]] = entry.m_blocks[closest[i]];
+        }
+    }
+
+    /**
+     * Get the color search structures for operation type
+     *
+     * @param type block operation type
+     * @return
+     */
+    private TypeEntry getEntry(OperationType type) {
+        final int idx = type.ordinal();
+        TypeEntry result = m_types.get(idx);
+        if (result != null) {
+            return result;
+        }
+
+        List<DrawingBlock> blocks = new ArrayList<DrawingBlock>();
+        blocks.add(DrawingBlock.AIR);
+        for (DrawingBlock blockEntry : m_blocks) {
+            if (blockEntry.getType().contains(type)) {
+                blocks.add(blockEntry);
+            }
+        }
+
+        result = new TypeEntry(blocks.toArray(new DrawingBlock[0]));
+        return m_types.compareAndSet(idx, null, result) ? result : m_types.get(idx);
     }
 
     /**
@@ -146,16 +297,56 @@ public class ColorMap implements IColorMap {
      */
     @Override
     public IColorPalette getPalette(OperationType type) {
-        List<Color> result = new ArrayList<Color>();
-        for (DrawingBlock blockEntry : m_blocks) {
-            if (blockEntry.getType().contains(type)) {
-                Color c = blockEntry.getColor();
-                if (c != null) {
-                    result.add(c);
-                }
-            }
+        return getEntry(type).m_palette;
+    }
+
+    /**
+     * Get block for color index in the getPalette palette
+     *
+     * @param index palette index, -1 for transparent
+     * @param type block operation type
+     * @return block entry
+     */
+    @Override
+    public IDrawingBlock getBlockForPaletteIndex(int index, OperationType type) {
+        if (!m_isInitialized || index < 0) {
+            return DrawingBlock.AIR;
+        }
+
+        return getEntry(type).m_blocks[index + 1];
+    }
+
+    /**
+     * Get the color map reduced to blocks that can be used for the image
+     * colors
+     *
+     * @param argb the image colors
+     * @param type operation type to reduce
+     * @return
+     */
+    @Override
+    public IColorMap prune(int[] argb, OperationType type) {
+        if (!m_isInitialized) {
+            return this;
+        }
+
+        ColorHistogram histogram = new ColorHistogram(argb);
+        TypeEntry entry = getEntry(type);
+
+        int[] candidates = histogram.getCandidates(entry.m_colors);
+        DrawingBlock[] blocks = new DrawingBlock[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            blocks[i] = entry.m_blocks[candidates[i]];
+        }
+
+        //The palette does not contain air
+        candidates = histogram.getCandidates(Arrays.copyOfRange(entry.m_colors, 1, entry.m_colors.length));
+        Color[] palette = new Color[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            palette[i] = entry.m_blocks[candidates[i] + 1].getColor();
         }
 
-        return new ColorPalette(result.toArray(new Color[0]));
+        return new PrunedColorMap(this, type, histogram, blocks,
+                new PrunedPalette(entry.m_palette, ColorPalette.create(palette), candidates, histogram));
     }
 }
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+/**
+ * Nearest color search over a structure of arrays copy of the palette. The
+ * results are the same as the ImageHelper.colorDistance linear scan (the
+ * lowest index wins ties), the square root is skipped for colors that are
+ * clearly further than the best match.
+ *
+ * @author SBPrime
+ */
+public class ColorMatcher {
+
+    /**
+     * The squared distance bound tolerance, colors are skipped only when
+     * they are clearly further than the best match (the bound is also
+     * extended by a few ulps of the best distance)
+     */
+    private static final double PRUNE_MARGIN = 1 + 1e-9;
+
+    /**
+     * Palette colors
+     */
+    private final int[] m_red;
+    private final int[] m_green;
+    private final int[] m_blue;
+    private final int[] m_alpha;
+
+    /**
+     * The batch search kernel
+     */
+    private final MatcherKernel m_kernel;
+
+    /**
+     * Create the matcher
+     *
+     * @param argb the palette colors
+     */
+    public ColorMatcher(int[] argb) {
+        final int cnt = argb.length;
+        m_red = new int[cnt];
+        m_green = new int[cnt];
+        m_blue = new int[cnt];
+        m_alpha = new int[cnt];
+
+        for (int i = 0; i < cnt; i++) {
+            int c = argb[i];
+            m_alpha[i] = c >>> 24;
+            m_red[i] = (c >> 16) & 0xff;
+            m_green[i] = (c >> 8) & 0xff;
+            m_blue[i] = c & 0xff;
+        }
+
+        m_kernel = MatcherKernel.create(m_red, m_green, m_blue, m_alpha);
+    }
+
+    /**
+     * Is the batch search using the vector API
+     *
+     * @return
+     */
+    public boolean isVectorized() {
+        return m_kernel.isVectorized();
+    }
+
+    /**
+     * Number of palette colors
+     *
+     * @return
+     */
+    public int size() {
+        return m_red.length;
+    }
+
+    /**
+     * Find the closest palette color
+     *
+     * @param r red
+     * @param g green
+     * @param b blue
+     * @param a alpha
+     * @return palette index or -1 if the palette is empty
+     */
+    public int findClosest(int r, int g, int b, int a) {
+        final int[] red = m_red;
+        final int[] green = m_green;
+        final int[] blue = m_blue;
+        final int[] alpha = m_alpha;
+        final int cnt = red.length;
+
+        int result = -1;
+        double closest = Double.POSITIVE_INFINITY;
+        double slack = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < cnt; i++) {
+            int a2 = alpha[i];
+            double da = Math.abs(a2 - a) * (a <= a2 ? 1 : 1000) * 512.0;
+            if (da >= closest) {
+                continue;
+            }
+
+            int r2 = red[i];
+            double rmean = (r + r2) / 2.0;
+            double dr = r - r2;
+            double dg = g - green[i];
+            double db = b - blue[i];
+            double sq = (2 + rmean / 256.0) * dr * dr + 4.0 * dg * dg
+                    + (2 + (255 - rmean) / 256.0) * db * db;
+
+            double limit = closest - da + slack;
+            if (sq > limit * limit * PRUNE_MARGIN) {
+                continue;
+            }
+
+            double dist = Math.sqrt(sq) + da;
+            if (dist < closest) {
+                result = i;
+                closest = dist;
+                slack = Math.ulp(closest) * 4;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Find the closest palette colors for packed ARGB colors
+     *
+     * @param argb the colors
+     * @param offset first color to match
+     * @param count number of colors to match
+     * @param result palette indices (-1 if the palette is empty), stored from
+     * index 0
+     */
+    public void findClosest(int[] argb, int offset, int count, int[] result) {
+        m_kernel.findClosest(this, argb, offset, count, result);
+    }
+}
@@ -43,13 +43,54 @@ public interface IColorMap {
     IDrawingBlock getBlockForColor(Color c, OperationType type);
 
     /**
-     * Get color pallete for given operation
+     * Get block for packed ARGB color
+     *
+     * @param argb color
+     * @param type block operation type
+     * @return block entry
+     */
+    IDrawingBlock getBlockForArgb(int argb, OperationType type);
+
+    /**
+     * Get blocks for packed ARGB colors
+     *
+     * @param argb colors
+     * @param result blocks, stored at the color index
+     * @param offset first color
+     * @param count number of colors
+     * @param type block operation type
+     */
+    void getBlocksForArgb(int[] argb, IDrawingBlock[] result, int offset, int count,
+            OperationType type);
+
+    /**
+     * Get block for color index in the getPalette palette
+     *
+     * @param index palette index, -1 for transparent
+     * @param type block operation type
+     * @return block entry
+     */
+    IDrawingBlock getBlockForPaletteIndex(int index, OperationType type);
+
+    /**
+     * Get color pallete for given operation (the same instance is returned
+     * for the operation)
      *
      * @param type operation type
      * @return Pallete
      */
     IColorPalette getPalette(OperationType type);
 
+    /**
+     * Get the color map reduced to blocks that can be used for the image
+     * colors (the results are the same as for the full color map)
+     *
+     * @param argb the image colors
+     * @param type operation type to reduce
+     * @return
+     */
+    IColorMap prune(int[] argb, OperationType type);
+
     
     /**
      * Is the color map initialized
@@ -32,13 +32,17 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 import javax.imageio.ImageIO;
 import org.primesoft.mcpainter.blocksplacer.BlockLoger;
 import org.primesoft.mcpainter.configuration.ConfigProvider;
 import org.primesoft.mcpainter.configuration.OperationType;
+import org.primesoft.mcpainter.drawing.filters.PaletteImage;
 import org.primesoft.mcpainter.utils.Orientation;
 import org.primesoft.mcpainter.MCPainterMain;
 import org.primesoft.mcpainter.utils.ExceptionHelper;
+import org.primesoft.mcpainter.utils.IntIntHashMap;
 import org.primesoft.mcpainter.utils.Pair;
 import org.primesoft.mcpainter.utils.Vector;
 import org.primesoft.mcpainter.utils.Vector2D;
@@ -86,23 +90,105 @@ public class ImageHelper {
         }
     }
 
+    /**
+     * Number of distinct colors from which the colors are quantised in parallel
+     */
+    private static final int PARALLEL_COLORS = 4096;
+
+    /**
+     * Number of colors quantised in one batch
+     */
+    private static final int COLOR_BATCH = 1024;
+
     public static void drawImage(BlockLoger loger, IColorMap colorMap, BufferedImage img,
             Vector pos, Orientation orientation) {
         int hh = img.getHeight();
         int ww = img.getWidth();
 
+        int[] palette = PaletteImage.getIndices(img, colorMap.getPalette(OperationType.Image));
+        if (palette != null) {
+            //The image is dithered to the color map palette, no color search needed
+            int max = -1;
+            int[] indices = new int[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                indices[i] = palette[i] + 1;
+                max = Math.max(max, palette[i]);
+            }
+
+            IDrawingBlock[] blocks = new IDrawingBlock[max + 2];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = colorMap.getBlockForPaletteIndex(i - 1, OperationType.Image);
+            }
+
+            placeImage(loger, blocks, indices, ww, hh, pos, orientation);
+            loger.logMessage("Image colors: using the dithering palette indices");
+            return;
+        }
+
+        int[] pixels = img.getRGB(0, 0, ww, hh, null, 0, ww);
+        IntIntHashMap colorIndex = new IntIntHashMap();
+        int[] colors = new int[16];
+        int[] indices = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int argb = pixels[i];
+            int idx = colorIndex.get(argb, -1);
+            if (idx == -1) {
+                idx = colorIndex.size();
+                if (idx == colors.length) {
+                    colors = Arrays.copyOf(colors, idx * 2);
+                }
+                colors[idx] = argb;
+                colorIndex.put(argb, idx);
+            }
+            indices[i] = idx;
+        }
+
+        final int distinct = colorIndex.size();
+        final int[] fColors = colors;
+        final IDrawingBlock[] blocks = new IDrawingBlock[distinct];
+        IntStream range = IntStream.range(0, (distinct + COLOR_BATCH - 1) / COLOR_BATCH);
+        if (distinct >= PARALLEL_COLORS) {
+            range = range.parallel();
+        }
+        range.forEach(i -> {
+            int offset = i * COLOR_BATCH;
+            colorMap.getBlocksForArgb(fColors, blocks, offset,
+                    Math.min(COLOR_BATCH, distinct - offset), OperationType.Image);
+        });
+
+        placeImage(loger, blocks, indices, ww, hh, pos, orientation);
+
+        if (pixels.length > 0) {
+            loger.logMessage(String.format("Image colors: %d distinct in %d pixels, hit ratio %.1f%%",
+                    distinct, pixels.length, 100.0 * (pixels.length - distinct) / pixels.length));
+        }
+    }
+
+    /**
+     * Place the image blocks
+     *
+     * @param loger
+     * @param blocks the blocks
+     * @param indices block index for every pixel (row by row)
+     * @param ww image width
+     * @param hh image height
+     * @param pos
+     * @param orientation
+     */
+    private static void placeImage(BlockLoger loger, IDrawingBlock[] blocks, int[] indices,
+            int ww, int hh, Vector pos, Orientation orientation) {
         int pY = pos.getBlockY();
-        
+
         for (int yy = 0; yy < hh; yy++) {
+            int row = (hh - yy - 1) * ww;
             for (int xx = 0; xx < ww; xx++) {
                 int x = orientation.calcX(xx, yy, 0);
                 int y = orientation.calcY(xx, yy, 0);
                 int z = orientation.calcZ(xx, yy, 0);
 
                 if (pY + y >= 0 && pY + y <= 255) {
-                    Color c = new Color(img.getRGB(xx, hh - yy - 1), true);
-                    IDrawingBlock block = colorMap.getBlockForColor(c, OperationType.Image);
-                    
+                    IDrawingBlock block = blocks[indices[row + xx]];
+
                     block.place(pos, new Vector(x, y, z), loger);
                 }
             }
@@ -146,13 +232,18 @@ public class ImageHelper {
         final int[] masks = new int[]{1, 2, 4, 8, 16, 32};
 
         int[] map = new int[]{0, 0, 0};
-        Color[] colors = new Color[6];
+        int[] colors = new int[6];
         int[] delta = new int[6];
         int[] depth = new int[6];
         int[] h1 = new int[6];
         int[] h2 = new int[6];
         int[] v1 = new int[6];
         int[] v2 = new int[6];
+        int[] tempDelta = new int[6];
+        int[] tempH1 = new int[6];
+        int[] tempV1 = new int[6];
+        int[] tempH2 = new int[6];
+        int[] tempV2 = new int[6];
         
         int pY = pos.getBlockY();
 
@@ -184,46 +275,40 @@ public class ImageHelper {
                     map[2] = z;
 
                     int mask = 0;
-                    int[] tempDelta = new int[]{
-                        d - delta[0] - z,
-                        z - delta[1],
-                        x - delta[2],
-                        w - delta[3] - x,
-                        h - delta[4] - y,
-                        y - delta[5]
-                    };
-                    int[] tempH1 = new int[]{
-                        x - h1[0],
-                        w - x - h1[1],
-                        z - h1[2],
-                        d - z - h1[3],                        
-                        w - x - h1[4],
-                        w - x - h1[5],
-                    };
-                    int[] tempV1 = new int[]{
-                        h - y - v1[0],
-                        h - y - v1[1],
-                        h - y - v1[2],
-                        h - y - v1[3],
-                        z - v1[4],
-                        z - v1[5],
-                    };
-                    int[] tempH2 = new int[]{
-                        w - x - h2[0],
-                        x - h2[1],
-                        d - z - h2[2],
-                        z - h2[3],                        
-                        x - h2[4],
-                        x - h2[5],
-                    };
-                    int[] tempV2 = new int[]{
-                        y - v2[0],
-                        y - v2[1],
-                        y - v2[2],
-                        y - v2[3],
-                        d - z - v2[4],
-                        d - z - v2[5],
-                    };
+                    tempDelta[0] = d - delta[0] - z;
+                    tempDelta[1] = z - delta[1];
+                    tempDelta[2] = x - delta[2];
+                    tempDelta[3] = w - delta[3] - x;
+                    tempDelta[4] = h - delta[4] - y;
+                    tempDelta[5] = y - delta[5];
+
+                    tempH1[0] = x - h1[0];
+                    tempH1[1] = w - x - h1[1];
+                    tempH1[2] = z - h1[2];
+                    tempH1[3] = d - z - h1[3];
+                    tempH1[4] = w - x - h1[4];
+                    tempH1[5] = w - x - h1[5];
+
+                    tempV1[0] = h - y - v1[0];
+                    tempV1[1] = h - y - v1[1];
+                    tempV1[2] = h - y - v1[2];
+                    tempV1[3] = h - y - v1[3];
+                    tempV1[4] = z - v1[4];
+                    tempV1[5] = z - v1[5];
+
+                    tempH2[0] = w - x - h2[0];
+                    tempH2[1] = x - h2[1];
+                    tempH2[2] = d - z - h2[2];
+                    tempH2[3] = z - h2[3];
+                    tempH2[4] = x - h2[4];
+                    tempH2[5] = x - h2[5];
+
+                    tempV2[0] = y - v2[0];
+                    tempV2[1] = y - v2[1];
+                    tempV2[2] = y - v2[2];
+                    tempV2[3] = y - v2[3];
+                    tempV2[4] = d - z - v2[4];
+                    tempV2[5] = d - z - v2[5];
                     for (int i = 0; i < 6; i++) {
                         mask |= (tempDelta[i] >= 0
                                 && tempH1[i] >= 0 && tempH2[i] >= 0
@@ -244,18 +329,16 @@ public class ImageHelper {
                             if (rawTex == null) {
                                 continue;
                             }
-                            Color c = getColor(rawTex.getImage(), (int) tex.getX(), (int) tex.getZ());
+                            int c = getArgb(rawTex.getImage(), (int) tex.getX(), (int) tex.getZ());
                             if (face.isGray() && grayColor != null) {
                                 c = getColor(c, grayColor);
                             }
 
                             if (!useAlpha) {
-                                int rgb = c.getRGB();
-                                int a = (rgb & 0xffffff) != 0 ? 0xff : 0x00;
-                                c = new Color((rgb & 0x00ffffff) | (a * 0x01000000));
+                                c |= 0xff000000;
                             }
 
-                            if (c.getAlpha() > 0) { //255
+                            if ((c >>> 24) > 0) { //255
                                 colors[colorCnt] = c;
                                 colorCnt++;
                             }
@@ -263,19 +346,7 @@ public class ImageHelper {
                     }
 
                     if (colorCnt > 0) {
-                        int r = 0;
-                        int g = 0;
-                        int b = 0;
-                        int a = 0;
-                        for (int idx = 0; idx < colorCnt; idx++) {
-                            Color c = colors[idx];
-                            r += c.getRed();
-                            g += c.getGreen();
-                            b += c.getBlue();
-                            a += c.getAlpha();
-                        }
-
-                        IDrawingBlock block = colorMap.getBlockForColor(new Color(r / colorCnt, g / colorCnt, b / colorCnt, a / colorCnt), type);
+                        IDrawingBlock block = colorMap.getBlockForArgb(getAverage(colors, colorCnt), type);
 
                         if (block!= null && !block.isAir()) {
                             int px = (int) (x * ddX[0] + y * ddX[1] + z * ddX[2]);
@@ -322,7 +393,7 @@ public class ImageHelper {
 
         int[] map = new int[]{0, 0, 0, 0};
 
-        Color[] colors = new Color[6];
+        int[] colors = new int[6];
         double scale = Math.min(h, Math.min(w, d));
         
         int pY = pos.getBlockY();
@@ -380,18 +451,16 @@ public class ImageHelper {
                             if (rawTex == null) {
                                 continue;
                             }
-                            Color c = getColor(rawTex.getImage(), (int) tex.getX(), (int) tex.getZ());
+                            int c = getArgb(rawTex.getImage(), (int) tex.getX(), (int) tex.getZ());
                             if (face.isGray() && grayColor != null) {
                                 c = getColor(c, grayColor);
                             }
 
                             if (!useAlpha) {
-                                int rgb = c.getRGB();
-                                int a = (rgb & 0xffffff) != 0 ? 0xff : 0x00;
-                                c = new Color((rgb & 0x00ffffff) | (a * 0x01000000));
+                                c |= 0xff000000;
                             }
 
-                            if (c.getAlpha() > 0) { //255
+                            if ((c >>> 24) > 0) { //255
                                 colors[colorCnt] = c;
                                 colorCnt++;
                             }
@@ -402,19 +471,7 @@ public class ImageHelper {
                     int dy = orientation.calcY(x, y, z);
                     int dz = orientation.calcZ(x, y, z);
                     if (colorCnt > 0) {
-                        int r = 0;
-                        int g = 0;
-                        int b = 0;
-                        int a = 0;
-                        for (int idx = 0; idx < colorCnt; idx++) {
-                            Color c = colors[idx];
-                            r += c.getRed();
-                            g += c.getGreen();
-                            b += c.getBlue();
-                            a += c.getAlpha();
-                        }
-
-                        IDrawingBlock block = colorMap.getBlockForColor(new Color(r / colorCnt, g / colorCnt, b / colorCnt, a / colorCnt), type);
+                        IDrawingBlock block = colorMap.getBlockForArgb(getAverage(colors, colorCnt), type);
 
                         if (block!= null && !block.isAir()) {
                             if (pY + dy >= 0 && pY + dy <= 255 && block != null) {
@@ -428,6 +485,22 @@ public class ImageHelper {
     }
 
     public static Color getColor(int[][] img, int u, int v) {
+        return new Color(getArgb(img, u, v), true);
+    }
+
+    public static Color getColor(int[][] img, double u, double v) {
+        return new Color(getArgb(img, u, v), true);
+    }
+
+    /**
+     * Get the packed ARGB image color
+     *
+     * @param img the image
+     * @param u column (clamped to the image)
+     * @param v row (clamped to the image)
+     * @return
+     */
+    public static int getArgb(int[][] img, int u, int v) {
         int h = img.length - 1;
         int w = img[0].length - 1;
 
@@ -444,10 +517,18 @@ public class ImageHelper {
             v = h;
         }
 
-        return new Color(img[v][u], true);
+        return img[v][u];
     }
 
-    public static Color getColor(int[][] img, double u, double v) {
+    /**
+     * Get the bilinear interpolated packed ARGB image color
+     *
+     * @param img the image
+     * @param u column (clamped to the image)
+     * @param v row (clamped to the image)
+     * @return
+     */
+    public static int getArgb(int[][] img, double u, double v) {
         int h = img.length - 1;
         int w = img[0].length - 1;
 
@@ -469,39 +550,55 @@ public class ImageHelper {
         double pu = 1 - (u - uu);
         double pv = 1 - (v - vv);
 
-        int[][] a = new int[2][2];
-        int[][] r = new int[2][2];
-        int[][] g = new int[2][2];
-        int[][] b = new int[2][2];
+        int c00 = getArgb(img, uu, vv);
+        int c10 = getArgb(img, uu + 1, vv);
+        int c01 = getArgb(img, uu, vv + 1);
+        int c11 = getArgb(img, uu + 1, vv + 1);
 
-        for (int i = 0; i < 2; i++) {
-            for (int j = 0; j < 2; j++) {
-                Color c = getColor(img, uu + i, vv + j);
+        return (interpolate(c00, c10, c01, c11, 24, pu, pv) << 24)
+                | (interpolate(c00, c10, c01, c11, 16, pu, pv) << 16)
+                | (interpolate(c00, c10, c01, c11, 8, pu, pv) << 8)
+                | interpolate(c00, c10, c01, c11, 0, pu, pv);
+    }
 
-                a[i][j] = c.getAlpha();
-                r[i][j] = c.getRed();
-                g[i][j] = c.getGreen();
-                b[i][j] = c.getBlue();
-            }
+    /**
+     * Bilinear interpolation of a single color channel
+     */
+    private static int interpolate(int c00, int c10, int c01, int c11, int shift,
+            double pu, double pv) {
+        int v00 = (c00 >>> shift) & 0xff;
+        int v10 = (c10 >>> shift) & 0xff;
+        int v01 = (c01 >>> shift) & 0xff;
+        int v11 = (c11 >>> shift) & 0xff;
+
+        double result = v00 * pu * pv
+                + v10 * (1 - pu) * pv
+                + v01 * pu * (1 - pv)
+                + v11 * (1 - pu) * (1 - pv);
+        return (int) result;
+    }
+
+    /**
+     * Calculate the average of packed ARGB colors
+     *
+     * @param colors the colors
+     * @param cnt number of colors to use
+     * @return
+     */
+    public static int getAverage(int[] colors, int cnt) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int a = 0;
+        for (int idx = 0; idx < cnt; idx++) {
+            int c = colors[idx];
+            a += c >>> 24;
+            r += (c >> 16) & 0xff;
+            g += (c >> 8) & 0xff;
+            b += c & 0xff;
         }
 
-        double aa = a[0][0] * pu * pv
-                + a[1][0] * (1 - pu) * pv
-                + a[0][1] * pu * (1 - pv)
-                + a[1][1] * (1 - pu) * (1 - pv);
-        double rr = r[0][0] * pu * pv
-                + r[1][0] * (1 - pu) * pv
-                + r[0][1] * pu * (1 - pv)
-                + r[1][1] * (1 - pu) * (1 - pv);
-        double gg = g[0][0] * pu * pv
-                + g[1][0] * (1 - pu) * pv
-                + g[0][1] * pu * (1 - pv)
-                + g[1][1] * (1 - pu) * (1 - pv);
-        double bb = b[0][0] * pu * pv
-                + b[1][0] * (1 - pu) * pv
-                + b[0][1] * pu * (1 - pv)
-                + b[1][1] * (1 - pu) * (1 - pv);
-        return new Color((int) rr, (int) gg, (int) bb, (int) aa);
+        return ((a / cnt) << 24) | ((r / cnt) << 16) | ((g / cnt) << 8) | (b / cnt);
     }
 
 
@@ -530,20 +627,32 @@ public class ImageHelper {
     }
 
     public static Color getColor(Color c, int[] grayColor) {
-        int r = c.getRed();
-        int g = c.getGreen();
-        int b = c.getBlue();
-        int a = c.getAlpha();
+        int argb = c.getRGB();
+        int result = getColor(argb, grayColor);
 
-        float h = grayColor[0] / 360.0f;
-        float s = grayColor[1] / 100.0f;
+        return result == argb ? c : new Color(result, true);
+    }
 
-        if (r == g && g == b && r == b) {
+    /**
+     * Apply the grayscale color to ARGB color
+     *
+     * @param argb the color
+     * @param grayColor grayscale color (hue, saturation)
+     * @return
+     */
+    public static int getColor(int argb, int[] grayColor) {
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+
+        if (r == g && g == b) {
+            float h = grayColor[0] / 360.0f;
+            float s = grayColor[1] / 100.0f;
             float p = r / 255.0f;
             int color = Color.HSBtoRGB(h, s, p);
-            return new Color((color & 0x00ffffff) | (a * 0x01000000), true);
+            return (color & 0x00ffffff) | (argb & 0xff000000);
         }
-        return c;
+        return argb;
     }
 
     public static int[][] convertToRGB(BufferedImage image, boolean[] useAlpha) {
@@ -596,19 +705,47 @@ public class ImageHelper {
         if (c1 == null || c2 == null) {
             return Double.POSITIVE_INFINITY;
         }
-        double rmean = (c1.getRed() + c2.getRed()) / 2.0;
-        double r = c1.getRed() - c2.getRed();
-        double g = c1.getGreen() - c2.getGreen();
-        double b = c1.getBlue() - c2.getBlue();
+        return colorDistance(c1.getRed(), c1.getGreen(), c1.getBlue(), c1.getAlpha(),
+                c2.getRed(), c2.getGreen(), c2.getBlue(), c2.getAlpha());
+    }
+
+    /**
+     * Calculate the weighted color distance
+     *
+     * @param r1
+     * @param g1
+     * @param b1
+     * @param a1
+     * @param r2
+     * @param g2
+     * @param b2
+     * @param a2
+     * @return
+     */
+    public static double colorDistance(int r1, int g1, int b1, int a1,
+            int r2, int g2, int b2, int a2) {
+        double rmean = (r1 + r2) / 2.0;
+        double r = r1 - r2;
+        double g = g1 - g2;
+        double b = b1 - b2;
         double weightR = 2 + rmean / 256.0;
         double weightG = 4.0;
         double weightB = 2 + (255 - rmean) / 256.0;
 
-        double a1 = c1.getAlpha();
-        double a2 = c2.getAlpha();
-        double a = Math.abs(a2 - a1) * (a1 <= a2 ? 1 : 1000);
+        return Math.sqrt(weightR * r * r + weightG * g * g + weightB * b * b) + alphaDistance(a1, a2);
+    }
 
-        return Math.sqrt(weightR * r * r + weightG * g * g + weightB * b * b) + a * 512;
+    /**
+     * The alpha part of the color distance, transparent colors are strongly
+     * penalized when matched with less transparent colors
+     *
+     * @param a1
+     * @param a2
+     * @return
+     */
+    public static double alphaDistance(int a1, int a2) {
+        double a = Math.abs(a2 - a1) * (a1 <= a2 ? 1 : 1000);
+        return a * 512;
     }
     //public static double colorDistance(Color c1, Color c2) {
     //    double r = c1.getRed() - c2.getRed();
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+/**
+ * Batch search kernel of the {@link ColorMatcher}. This is the scalar
+ * version, the multi-release jar contains a Java 16 version that uses the
+ * vector API when the jdk.incubator.vector module is available.
+ *
+ * @author SBPrime
+ */
+class MatcherKernel {
+
+    /**
+     * Create the kernel for the palette
+     *
+     * @param red palette red channel
+     * @param green palette green channel
+     * @param blue palette blue channel
+     * @param alpha palette alpha channel
+     * @return
+     */
+    static MatcherKernel create(int[] red, int[] green, int[] blue, int[] alpha) {
+        return new MatcherKernel();
+    }
+
+    /**
+     * Is the vector API used
+     *
+     * @return
+     */
+    boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Find the closest palette colors for packed ARGB colors
+     *
+     * @param matcher the matcher
+     * @param argb the colors
+     * @param offset first color to match
+     * @param count number of colors to match
+     * @param result palette indices, stored from index 0
+     */
+    void findClosest(ColorMatcher matcher, int[] argb, int offset, int count, int[] result) {
+        for (int i = 0; i < count; i++) {
+            int c = argb[offset + i];
+            result[i] = matcher.findClosest((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff, c >>> 24);
+        }
+    }
+}
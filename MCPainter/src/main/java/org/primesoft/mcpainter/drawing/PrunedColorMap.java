@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+import java.awt.Color;
+import org.primesoft.mcpainter.configuration.OperationType;
+import org.primesoft.mcpainter.drawing.filters.IColorPalette;
+
+/**
+ * Color map reduced to the blocks that can be the closest for the image
+ * histogram. Opaque colors use the full color map lookup table, colors outside
+ * of the histogram use the full color map.
+ *
+ * @author SBPrime
+ */
+class PrunedColorMap implements IColorMap {
+
+    private final IColorMap m_full;
+
+    private final OperationType m_type;
+
+    private final ColorHistogram m_histogram;
+
+    /**
+     * The candidate blocks
+     */
+    private final DrawingBlock[] m_blocks;
+
+    private final ColorMatcher m_matcher;
+
+    private final IColorPalette m_palette;
+
+    PrunedColorMap(IColorMap full, OperationType type, ColorHistogram histogram,
+            DrawingBlock[] blocks, IColorPalette palette) {
+        int[] colors = new int[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            colors[i] = blocks[i].getColor().getRGB();
+        }
+
+        m_full = full;
+        m_type = type;
+        m_histogram = histogram;
+        m_blocks = blocks;
+        m_matcher = new ColorMatcher(colors);
+        m_palette = palette;
+    }
+
+    @Override
+    public IDrawingBlock getBlockForColor(Color c, OperationType type) {
+        if (c == null) {
+            return DrawingBlock.AIR;
+        }
+
+        return getBlockForArgb(c.getRGB(), type);
+    }
+
+    @Override
+    public IDrawingBlock getBlockForArgb(int argb, OperationType type) {
+        if (type != m_type || (argb >>> 24) == 255 || !m_histogram.contains(argb)) {
+            return m_full.getBlockForArgb(argb, type);
+        }
+
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        return m_blocks[m_matcher.findClosest(r, g, b, a)];
+    }
+
+    @Override
+    public void getBlocksForArgb(int[] argb, IDrawingBlock[] result, int offset, int count,
+            OperationType type) {
+        if (type != m_type) {
+            m_full.getBlocksForArgb(argb, result, offset, count, type);
+            return;
+        }
+
+        for (int i = offset; i < offset + count; i++) {
+            result[i] = getBlockForArgb(argb[i], type);
+        }
+    }
+
+    @Override
+    public IDrawingBlock getBlockForPaletteIndex(int index, OperationType type) {
+        return m_full.getBlockForPaletteIndex(index, type);
+    }
+
+    @Override
+    public IColorPalette getPalette(OperationType type) {
+        return type == m_type ? m_palette : m_full.getPalette(type);
+    }
+
+    @Override
+    public Boolean isInitialized() {
+        return m_full.isInitialized();
+    }
+
+    @Override
+    public IColorMap prune(int[] argb, OperationType type) {
+        return m_full.prune(argb, type);
+    }
+}
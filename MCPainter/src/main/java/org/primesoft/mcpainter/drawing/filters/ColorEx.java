@@ -55,6 +55,22 @@ public class ColorEx {
         m_a = a;
     }
 
+    public int getRed() {
+        return m_r;
+    }
+
+    public int getGreen() {
+        return m_g;
+    }
+
+    public int getBlue() {
+        return m_b;
+    }
+
+    public int getAlpha() {
+        return m_a;
+    }
+
     /**
      * Is this colr transparent
      *
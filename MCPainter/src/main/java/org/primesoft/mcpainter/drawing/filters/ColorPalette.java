@@ -24,6 +24,7 @@
 package org.primesoft.mcpainter.drawing.filters;
 
 import java.awt.Color;
+import org.primesoft.mcpainter.drawing.ColorMatcher;
 
 /**
  *
@@ -31,32 +32,55 @@ import java.awt.Color;
  */
 public class ColorPalette implements IColorPalette {
 
+    /**
+     * Palette size from which the k-d tree is faster than the linear scan
+     * (mostly opaque images)
+     */
+    private static final int TREE_THRESHOLD = 128;
+
+    /**
+     * Create the color palette, large palettes use the k-d tree
+     *
+     * @param pal the palette colors
+     * @return
+     */
+    public static IColorPalette create(Color[] pal) {
+        if (pal.length >= TREE_THRESHOLD) {
+            return new KdTreePalette(pal);
+        }
+        return new ColorPalette(pal);
+    }
+
     private final ColorEx[] m_palette;
 
+    private final ColorMatcher m_matcher;
+
     public ColorPalette(Color[] pal) {
+        int[] colors = new int[pal.length];
         m_palette = new ColorEx[pal.length];
         for (int i = 0; i < pal.length; i++) {
             m_palette[i] = new ColorEx(pal[i]);
+            colors[i] = pal[i].getRGB();
         }
+        m_matcher = new ColorMatcher(colors);
     }
 
     @Override
     public ColorEx findClosestColor(ColorEx c) {
+        return getColor(findClosestIndex(c));
+    }
+
+    @Override
+    public int findClosestIndex(ColorEx c) {
         if (c.isTransparent()) {
-            return ColorEx.TRANSPARENT;
+            return -1;
         }
 
-        double delta = Double.POSITIVE_INFINITY;
-        int result = -1;
-        for (int i = 0; i < m_palette.length; i++) {
-            ColorEx palC = m_palette[i];
-            double d = ColorEx.dist(c, palC);
-            if (d < delta) {
-                result = i;
-                delta = d;
-            }
-        }
+        return m_matcher.findClosest(c.getRed(), c.getGreen(), c.getBlue(), c.getAlpha());
+    }
 
-        return result != -1 ? m_palette[result] : ColorEx.TRANSPARENT;
+    @Override
+    public ColorEx getColor(int index) {
+        return index != -1 ? m_palette[index] : ColorEx.TRANSPARENT;
     }
 }
@@ -48,6 +48,10 @@ public class CropFilter implements IImageFilter {
             return null;
         }
 
+        if (src instanceof PaletteImage) {
+            return ((PaletteImage) src).crop(x1, y1, w, h);
+        }
+
         BufferedImage result = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = ImageHelper.getGraphics(result, interpolate);
         g.drawImage(src, 0, 0, w, h, x1, y1, x2 + 1, y2 + 1, null);
@@ -24,7 +24,9 @@
 package org.primesoft.mcpainter.drawing.filters;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
 import org.primesoft.mcpainter.PermissionManager;
+import org.primesoft.mcpainter.drawing.ImageHelper;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 
@@ -67,9 +69,41 @@ public class Dither extends BaseRGBFilter {
         return PermissionManager.isAllowed(player, PermissionManager.Perms.FilterDithering);
     }
 
+    @Override
+    public BufferedImage process(BufferedImage src, IFilterParams params) {
+        int[][] rgb = ImageHelper.convertToRGB(src, null);
+
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int[] indices = new int[width * height];
+        rgb = process(rgb, width, height, params, indices);
+
+        PaletteImage result = new PaletteImage(width, height, ((DitherParams) params).getPalette(), indices);
+        for (int i = 0; i < height; i++) {
+            result.setRGB(0, i, width, 1, rgb[i], 0, width);
+        }
+
+        return result;
+    }
+
     @Override
     public int[][] process(int[][] rgb, int width, int height,
             boolean hasAlpha, IFilterParams params) {
+        return process(rgb, width, height, params, null);
+    }
+
+    /**
+     * Dither the image
+     *
+     * @param rgb the image
+     * @param width
+     * @param height
+     * @param params
+     * @param indices the palette index for every pixel (row by row), or null
+     * @return
+     */
+    private int[][] process(int[][] rgb, int width, int height,
+            IFilterParams params, int[] indices) {
         int[][] result = new int[height][width];
         ColorEx[][] pix = new ColorEx[height][width];
 
@@ -86,10 +120,14 @@ public class Dither extends BaseRGBFilter {
             for (int x = 0; x < width; x++) {
                 ColorEx oldColor = pix[y][x];
                 
-                ColorEx newColor = palette.findClosestColor(oldColor);
+                int idx = palette.findClosestIndex(oldColor);
+                ColorEx newColor = palette.getColor(idx);
                 ColorEx err = ColorEx.sub(oldColor, newColor);
 
                 result[y][x] = newColor.toRGB();
+                if (indices != null) {
+                    indices[y * width + x] = idx;
+                }
                 if (x + 1 < width) {
                     pix[y][x + 1] = ColorEx.clamp(ColorEx.add(pix[y][x + 1], ColorEx.mul(err, 7.0 / 16)));
 
@@ -26,6 +26,7 @@ package org.primesoft.mcpainter.drawing.filters;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import org.primesoft.mcpainter.configuration.ConfigProvider;
@@ -44,6 +45,10 @@ public class FilterManager {
 
     private final static List<IImageFilter> s_filters = new ArrayList();
     private final static HashMap<Player, FilterManager> s_playerFilters = new HashMap<Player, FilterManager>();
+    /**
+     * The map color for map palette index
+     */
+    private final static byte[] s_mapColors = getMapColors();
     private final static IColorPalette s_mapPalette = getMapPalette();
 
     /**
@@ -60,12 +65,13 @@ public class FilterManager {
     
     
     /**
-     * Initialize the map palette
+     * Get the not transparent map colors
      *
-     * @return Map pallete
+     * @return Map colors
      */
-    private static IColorPalette getMapPalette() {
-        List<Color> result = new ArrayList<Color>();
+    private static byte[] getMapColors() {
+        byte[] result = new byte[256];
+        int cnt = 0;
         try {
             for (int i = 0; i < 256; i++) {
                 Color c = MapPalette.getColor((byte)i);
@@ -73,13 +79,48 @@ public class FilterManager {
                 {
                     continue;
                 }
-                result.add(c);
+                result[cnt++] = (byte) i;
             }
         } catch (Exception ex) {
             //Ignore exception
         }
 
-        return new ColorPalette(result.toArray(new Color[0]));
+        return Arrays.copyOf(result, cnt);
+    }
+
+    /**
+     * Initialize the map palette
+     *
+     * @return Map pallete
+     */
+    private static IColorPalette getMapPalette() {
+        Color[] result = new Color[s_mapColors.length];
+        for (int i = 0; i < s_mapColors.length; i++) {
+            result[i] = MapPalette.getColor(s_mapColors[i]);
+        }
+
+        return ColorPalette.create(result);
+    }
+
+    /**
+     * Get the map color for every pixel of image dithered to the map palette
+     *
+     * @param img the image
+     * @return Map colors (row by row) or null if image is not dithered to the
+     * map palette
+     */
+    public static byte[] getMapColors(BufferedImage img) {
+        int[] indices = PaletteImage.getIndices(img, s_mapPalette);
+        if (indices == null) {
+            return null;
+        }
+
+        byte[] result = new byte[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            int idx = indices[i];
+            result[i] = idx != -1 ? s_mapColors[idx] : MapPalette.TRANSPARENT;
+        }
+        return result;
     }
 
 
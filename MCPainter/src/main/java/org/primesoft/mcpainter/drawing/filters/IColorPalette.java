@@ -29,4 +29,20 @@ package org.primesoft.mcpainter.drawing.filters;
  */
 public interface IColorPalette {
     ColorEx findClosestColor(ColorEx c);
+
+    /**
+     * Find the closest palette color index
+     *
+     * @param c the color
+     * @return palette index, -1 for transparent
+     */
+    int findClosestIndex(ColorEx c);
+
+    /**
+     * Get the palette color
+     *
+     * @param index palette index, -1 for transparent
+     * @return
+     */
+    ColorEx getColor(int index);
 }
@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing.filters;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Color palette backed by a k-d tree. The closest color is found using branch
+ * and bound search with the palette color distance lower bound for the tree
+ * node bounding box.
+ *
+ * @author SBPrime
+ */
+public class KdTreePalette implements IColorPalette {
+
+    /**
+     * Maximum number of colors in a leaf
+     */
+    private static final int LEAF_SIZE = 4;
+
+    /**
+     * Number of dimensions (red, green, blue, alpha)
+     */
+    private static final int DIMS = 4;
+
+    /**
+     * Lower bound comparison tolerance
+     */
+    private static final double EPSILON = 1e-9;
+
+    private final ColorEx[] m_palette;
+
+    /**
+     * Palette color components [dimension][color]
+     */
+    private final int[][] m_coords;
+
+    /**
+     * Color indices ordered by the tree nodes
+     */
+    private final int[] m_order;
+
+    /**
+     * Node color range in m_order
+     */
+    private final int[] m_start;
+    private final int[] m_end;
+
+    /**
+     * Child nodes, -1 for leafs
+     */
+    private final int[] m_left;
+    private final int[] m_right;
+
+    /**
+     * Node bounding box [dimension][node]
+     */
+    private final int[][] m_min;
+    private final int[][] m_max;
+
+    private int m_nodes;
+
+    public KdTreePalette(Color[] pal) {
+        final int cnt = pal.length;
+        m_palette = new ColorEx[cnt];
+        m_coords = new int[DIMS][cnt];
+        m_order = new int[cnt];
+        for (int i = 0; i < cnt; i++) {
+            ColorEx c = new ColorEx(pal[i]);
+            m_palette[i] = c;
+            m_coords[0][i] = c.getRed();
+            m_coords[1][i] = c.getGreen();
+            m_coords[2][i] = c.getBlue();
+            m_coords[3][i] = c.getAlpha();
+            m_order[i] = i;
+        }
+
+        final int maxNodes = 2 * cnt + 1;
+        m_start = new int[maxNodes];
+        m_end = new int[maxNodes];
+        m_left = new int[maxNodes];
+        m_right = new int[maxNodes];
+        m_min = new int[DIMS][maxNodes];
+        m_max = new int[DIMS][maxNodes];
+        if (cnt > 0) {
+            build(0, cnt, new long[cnt]);
+        }
+    }
+
+    /**
+     * Build the tree node
+     *
+     * @param start first color (inclusive)
+     * @param end last color (exclusive)
+     * @param keys sort buffer
+     * @return the node index
+     */
+    private int build(int start, int end, long[] keys) {
+        final int node = m_nodes++;
+        m_start[node] = start;
+        m_end[node] = end;
+        m_left[node] = -1;
+        m_right[node] = -1;
+
+        int splitDim = 0;
+        int spread = -1;
+        for (int d = 0; d < DIMS; d++) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = start; i < end; i++) {
+                int v = m_coords[d][m_order[i]];
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            m_min[d][node] = min;
+            m_max[d][node] = max;
+            if (max - min > spread) {
+                spread = max - min;
+                splitDim = d;
+            }
+        }
+
+        if (end - start <= LEAF_SIZE || spread == 0) {
+            return node;
+        }
+
+        for (int i = start; i < end; i++) {
+            keys[i] = ((long) m_coords[splitDim][m_order[i]] << 32) | m_order[i];
+        }
+        Arrays.sort(keys, start, end);
+        for (int i = start; i < end; i++) {
+            m_order[i] = (int) keys[i];
+        }
+
+        final int mid = (start + end) >>> 1;
+        m_left[node] = build(start, mid, keys);
+        m_right[node] = build(mid, end, keys);
+        return node;
+    }
+
+    @Override
+    public ColorEx findClosestColor(ColorEx c) {
+        return getColor(findClosestIndex(c));
+    }
+
+    @Override
+    public int findClosestIndex(ColorEx c) {
+        if (c.isTransparent() || m_nodes == 0) {
+            return -1;
+        }
+
+        Search search = new Search(c);
+        search.visit(0);
+        return search.m_result;
+    }
+
+    @Override
+    public ColorEx getColor(int index) {
+        return index != -1 ? m_palette[index] : ColorEx.TRANSPARENT;
+    }
+
+    /**
+     * The closest color search state
+     */
+    private class Search {
+
+        private final ColorEx m_color;
+        private final int m_r;
+        private final int m_g;
+        private final int m_b;
+        private final int m_a;
+        private double m_delta = Double.POSITIVE_INFINITY;
+        private int m_result = -1;
+
+        Search(ColorEx c) {
+            m_color = c;
+            m_r = c.getRed();
+            m_g = c.getGreen();
+            m_b = c.getBlue();
+            m_a = c.getAlpha();
+        }
+
+        void visit(int node) {
+            if (m_left[node] < 0) {
+                for (int i = m_start[node]; i < m_end[node]; i++) {
+                    int idx = m_order[i];
+                    double d = ColorEx.dist(m_color, m_palette[idx]);
+                    if (d < m_delta || (d == m_delta && idx < m_result)) {
+                        m_delta = d;
+                        m_result = idx;
+                    }
+                }
+                return;
+            }
+
+            int first = m_left[node];
+            int second = m_right[node];
+            double firstBound = bound(first);
+            double secondBound = bound(second);
+            if (secondBound < firstBound) {
+                int tmp = first;
+                first = second;
+                second = tmp;
+                double tmpBound = firstBound;
+                firstBound = secondBound;
+                secondBound = tmpBound;
+            }
+
+            if (firstBound - EPSILON <= m_delta) {
+                visit(first);
+            }
+            if (secondBound - EPSILON <= m_delta) {
+                visit(second);
+            }
+        }
+
+        /**
+         * Get the distance lower bound for the node bounding box
+         *
+         * @param node
+         * @return
+         */
+        private double bound(int node) {
+            final int rMin = m_min[0][node];
+            final int rMax = m_max[0][node];
+            final double dr = axisDistance(m_r, rMin, rMax);
+            final double dg = axisDistance(m_g, m_min[1][node], m_max[1][node]);
+            final double db = axisDistance(m_b, m_min[2][node], m_max[2][node]);
+
+            final double weightR = Math.max(0, 2 + (m_r + rMin) / 2.0 / 256.0);
+            final double weightB = Math.max(0, 2 + (255 - (m_r + rMax) / 2.0) / 256.0);
+
+            final int aMin = m_min[3][node];
+            final int aMax = m_max[3][node];
+            final double a;
+            if (m_a < aMin) {
+                a = aMin - m_a;
+            } else if (m_a > aMax) {
+                a = (m_a - aMax) * 1000.0;
+            } else {
+                a = 0;
+            }
+
+            return Math.sqrt(weightR * dr * dr + 4.0 * dg * dg + weightB * db * db) + a * 512;
+        }
+    }
+
+    /**
+     * Distance from the value to the range
+     *
+     * @param v
+     * @param min
+     * @param max
+     * @return
+     */
+    private static double axisDistance(int v, int min, int max) {
+        if (v < min) {
+            return min - v;
+        }
+        if (v > max) {
+            return v - max;
+        }
+        return 0;
+    }
+}
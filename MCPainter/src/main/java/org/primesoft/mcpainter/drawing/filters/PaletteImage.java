@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing.filters;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Image converted to palette colors, the image stores the palette index of
+ * every pixel so the closest color search does not need to be repeated
+ *
+ * @author SBPrime
+ */
+public class PaletteImage extends BufferedImage {
+
+    /**
+     * The palette
+     */
+    private final IColorPalette m_palette;
+
+    /**
+     * Palette index for every pixel (row by row), -1 for transparent
+     */
+    private final int[] m_indices;
+
+    public PaletteImage(int width, int height, IColorPalette palette, int[] indices) {
+        super(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        m_palette = palette;
+        m_indices = indices;
+    }
+
+    public IColorPalette getPalette() {
+        return m_palette;
+    }
+
+    /**
+     * Get the palette indices for image
+     *
+     * @param img the image
+     * @param palette the expected palette
+     * @return palette index for every pixel or null if the image is not
+     * converted to the palette
+     */
+    public static int[] getIndices(BufferedImage img, IColorPalette palette) {
+        if (!(img instanceof PaletteImage) || palette == null) {
+            return null;
+        }
+
+        PaletteImage pImg = (PaletteImage) img;
+        return pImg.m_palette == palette ? pImg.m_indices : null;
+    }
+
+    /**
+     * Crop the image with the palette indices
+     *
+     * @param x1
+     * @param y1
+     * @param w
+     * @param h
+     * @return
+     */
+    public PaletteImage crop(int x1, int y1, int w, int h) {
+        final int width = getWidth();
+        int[] indices = new int[w * h];
+        int[] rgb = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(m_indices, (y + y1) * width + x1, indices, y * w, w);
+        }
+        getRGB(x1, y1, w, h, rgb, 0, w);
+
+        PaletteImage result = new PaletteImage(w, h, m_palette, indices);
+        result.setRGB(0, 0, w, h, rgb, 0, w);
+        return result;
+    }
+}
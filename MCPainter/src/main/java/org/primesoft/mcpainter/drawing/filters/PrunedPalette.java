@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing.filters;
+
+import org.primesoft.mcpainter.drawing.ColorHistogram;
+
+/**
+ * Color palette reduced to the colors that can be the closest for the image
+ * histogram. Colors outside of the histogram use the full palette.
+ *
+ * @author SBPrime
+ */
+public class PrunedPalette implements IColorPalette {
+
+    private final IColorPalette m_full;
+
+    private final IColorPalette m_pruned;
+
+    private final ColorHistogram m_histogram;
+
+    /**
+     * The full palette index for pruned palette index
+     */
+    private final int[] m_indices;
+
+    public PrunedPalette(IColorPalette full, IColorPalette pruned, int[] indices,
+            ColorHistogram histogram) {
+        m_full = full;
+        m_pruned = pruned;
+        m_indices = indices;
+        m_histogram = histogram;
+    }
+
+    @Override
+    public ColorEx findClosestColor(ColorEx c) {
+        return getColor(findClosestIndex(c));
+    }
+
+    @Override
+    public int findClosestIndex(ColorEx c) {
+        if (!c.isTransparent()
+                && m_histogram.contains(c.getRed(), c.getGreen(), c.getBlue(), c.getAlpha())) {
+            int idx = m_pruned.findClosestIndex(c);
+            return idx != -1 ? m_indices[idx] : -1;
+        }
+
+        return m_full.findClosestIndex(c);
+    }
+
+    @Override
+    public ColorEx getColor(int index) {
+        return m_full.getColor(index);
+    }
+}
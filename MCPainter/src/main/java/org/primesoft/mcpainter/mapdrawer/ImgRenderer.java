@@ -25,6 +25,8 @@ package org.primesoft.mcpainter.mapdrawer;
 
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import org.primesoft.mcpainter.drawing.filters.FilterManager;
 import org.bukkit.entity.Player;
 import org.bukkit.map.MapCanvas;
 import org.bukkit.map.MapPalette;
@@ -62,6 +64,20 @@ public class ImgRenderer extends MapRenderer {
         int hh = Math.min(img.getHeight(), MAX_SIZE);
         int ww = Math.min(img.getWidth(), MAX_SIZE);
 
+        m_isRendered = false;
+
+        byte[] colors = FilterManager.getMapColors(img);
+        if (colors != null) {
+            //The image is dithered to the map palette
+            int w = img.getWidth();
+            m_img = new byte[MAX_SIZE * MAX_SIZE];
+            Arrays.fill(m_img, MapPalette.TRANSPARENT);
+            for (int y = 0; y < hh; y++) {
+                System.arraycopy(colors, y * w, m_img, y * MAX_SIZE, ww);
+            }
+            return;
+        }
+
         BufferedImage lImg;
 
         if (hh != MAX_SIZE || ww != MAX_SIZE) {
@@ -73,7 +89,6 @@ public class ImgRenderer extends MapRenderer {
             lImg = img;
         }
 
-        m_isRendered = false;
         m_img = MapPalette.imageToBytes(lImg);
     }
 
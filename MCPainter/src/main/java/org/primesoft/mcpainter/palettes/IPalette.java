@@ -40,9 +40,9 @@ public interface IPalette {
     String getName();
     
     /**
-     * Create a new instance of color map for this palette
+     * Get the color map for this palette (shared by all players)
      * @param main
      * @return 
      */
-    IColorMap createColorMap(MCPainterMain main);
+    IColorMap getColorMap(MCPainterMain main);
 }
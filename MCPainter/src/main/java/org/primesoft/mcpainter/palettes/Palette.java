@@ -27,6 +27,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import org.primesoft.mcpainter.configuration.BlockEntry;
+import org.primesoft.mcpainter.drawing.BlockColorCache;
 import org.primesoft.mcpainter.drawing.ColorMap;
 import org.primesoft.mcpainter.drawing.IColorMap;
 import org.primesoft.mcpainter.MCPainterMain;
@@ -50,6 +51,11 @@ public class Palette implements IPalette {
      */
     private final String m_name;
 
+    /**
+     * The shared color map
+     */
+    private IColorMap m_colorMap;
+
     /**
      * Palette blocks
      *
@@ -80,14 +86,22 @@ public class Palette implements IPalette {
     }
     
     /**
-     * Create a new instance of color map for this palette
+     * Get the color map for this palette, the color map is created once
+     * and shared by all players
      * @param main
      * @return 
      */
     @Override
-    public IColorMap createColorMap(MCPainterMain main)
+    public synchronized IColorMap getColorMap(MCPainterMain main)
     {
-        return new ColorMap(main.getTextureProvider(), this);
+        if (m_colorMap == null) {
+            BlockColorCache cache = main.getColorCache();
+            m_colorMap = new ColorMap(main.getTextureProvider(), this, cache);
+            if (cache != null) {
+                cache.save();
+            }
+        }
+        return m_colorMap;
     }
 
     /**
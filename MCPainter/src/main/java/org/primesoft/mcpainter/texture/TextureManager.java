@@ -169,6 +169,45 @@ public class TextureManager {
                 new int[]{td.getRow()});
     }
 
+    /**
+     * Get the texture file checksum based on the texture descriptor
+     *
+     * @param td
+     * @return
+     */
+    public String getChecksum(TextureDescription td) {
+        if (td == null) {
+            return null;
+        }
+
+        TextureProvider tp = get(td.getTexturePack());
+        if (tp == null) {
+            return null;
+        }
+
+        return tp.getChecksum(td.getFile());
+    }
+
+    /**
+     * Try to get the texture file checksum from one of the available texture
+     * packs
+     *
+     * @param fileName
+     * @return
+     */
+    public String getChecksumFromTexturePacks(String fileName) {
+        synchronized (m_texturePacks) {
+            for (TexturePack texturePack : m_texturePacks) {
+                String checksum = texturePack.getChecksum(fileName);
+                if (checksum != null) {
+                    return checksum;
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Try to get the texture from one of the available texture packs
      *
@@ -34,6 +34,7 @@ import java.util.zip.ZipFile;
 import javax.imageio.ImageIO;
 import org.primesoft.mcpainter.configuration.ConfigProvider;
 import org.primesoft.mcpainter.drawing.RawImage;
+import org.primesoft.mcpainter.utils.MD5;
 
 /**
  *
@@ -42,6 +43,7 @@ import org.primesoft.mcpainter.drawing.RawImage;
 public class TexturePack {
 
     private final HashMap<String, RawImage> m_imgCatch = new HashMap<String, RawImage>();
+    private final HashMap<String, String> m_checksumCatch = new HashMap<String, String>();
     private int m_textureRes = -1;
     private ZipFile m_zipFile = null;
     private File m_dir = null;
@@ -105,6 +107,49 @@ public class TexturePack {
         }
     }
 
+    /**
+     * Get the MD5 checksum of the image file content (the image is not
+     * decoded)
+     *
+     * @param filePath image path
+     * @return The checksum or null if file not found
+     */
+    public String getChecksum(String filePath) {
+        synchronized (m_checksumCatch) {
+            if (m_checksumCatch.containsKey(filePath)) {
+                return m_checksumCatch.get(filePath);
+            }
+
+            String result = null;
+            if (m_dir != null) {
+                String[] parts = filePath.split("/");
+                File file = m_dir;
+                for (String dir : parts) {
+                    file = new File(file, dir);
+                }
+
+                if (file.exists() && file.isFile() && file.canRead()) {
+                    result = MD5.getMD5Checksum(file);
+                }
+            } else if (m_zipFile != null) {
+                ZipEntry entry = m_zipFile.getEntry(filePath);
+                if (entry != null) {
+                    try {
+                        result = MD5.getMD5Checksum(m_zipFile.getInputStream(entry));
+                    } catch (IOException ex) {
+                        result = null;
+                    }
+                }
+            }
+
+            if (result != null && (result.isEmpty() || result.equals("?"))) {
+                result = null;
+            }
+            m_checksumCatch.put(filePath, result);
+            return result;
+        }
+    }
+
     /**
      * Get image from file
      *
@@ -134,6 +134,29 @@ public class TextureProvider {
         return new TextureEntry(images, name);
     }
 
+    /**
+     * Get the texture file checksum. The file is resolved the same way as in
+     * getTexture
+     *
+     * @param file Texture file
+     * @return The checksum or null if not found
+     */
+    public String getChecksum(String file) {
+        if (m_specified == null) {
+            return null;
+        }
+
+        String result = null;
+        if (m_textureManager != null) {
+            result = m_textureManager.getChecksumFromTexturePacks(file);
+        }
+        if (result == null) {
+            result = m_specified.getChecksum(file);
+        }
+
+        return result;
+    }
+
     /**
      * Finilize the texture pack provider
      */
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from int keys to non negative int values
+ *
+ * @author SBPrime
+ */
+public class IntIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] m_keys;
+
+    /**
+     * The values increased by one, 0 marks an empty slot
+     */
+    private int[] m_values;
+
+    private int m_size;
+
+    private int m_mask;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, (int) (capacity / LOAD_FACTOR)) - 1) << 1;
+        m_keys = new int[size];
+        m_values = new int[size];
+        m_mask = size - 1;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Get the value for key
+     *
+     * @param key the key
+     * @param missing value returned when the key is not present
+     * @return the value
+     */
+    public int get(int key, int missing) {
+        for (int i = slot(key);; i = (i + 1) & m_mask) {
+            int value = m_values[i];
+            if (value == 0) {
+                return missing;
+            }
+            if (m_keys[i] == key) {
+                return value - 1;
+            }
+        }
+    }
+
+    /**
+     * Set the value for key
+     *
+     * @param key the key
+     * @param value the value (must not be negative)
+     */
+    public void put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values are not supported");
+        }
+
+        for (int i = slot(key);; i = (i + 1) & m_mask) {
+            if (m_values[i] == 0) {
+                m_keys[i] = key;
+                m_values[i] = value + 1;
+                m_size++;
+                if (m_size > m_keys.length * LOAD_FACTOR) {
+                    rehash(m_keys.length << 1);
+                }
+                return;
+            }
+            if (m_keys[i] == key) {
+                m_values[i] = value + 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        if (m_size == 0) {
+            return;
+        }
+
+        Arrays.fill(m_values, 0);
+        m_size = 0;
+    }
+
+    private void rehash(int newSize) {
+        int[] keys = m_keys;
+        int[] values = m_values;
+
+        m_keys = new int[newSize];
+        m_values = new int[newSize];
+        m_mask = newSize - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == 0) {
+                continue;
+            }
+
+            int j = slot(keys[i]);
+            while (m_values[j] != 0) {
+                j = (j + 1) & m_mask;
+            }
+            m_keys[j] = keys[i];
+            m_values[j] = values[i];
+        }
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & m_mask;
+    }
+}
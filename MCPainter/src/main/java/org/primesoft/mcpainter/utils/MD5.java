@@ -56,7 +56,20 @@ public class MD5 {
      */
     private static byte[] createChecksum(File file) {
         try {
-            InputStream fis = new FileInputStream(file);
+            return createChecksum(new FileInputStream(file));
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Calculate MD5 checksum for stream, the stream is closed
+     *
+     * @param fis
+     * @return MD5 checksum
+     */
+    private static byte[] createChecksum(InputStream fis) {
+        try {
             byte[] buffer = new byte[BUF_SIZE];
             MessageDigest complete = MessageDigest.getInstance("MD5");
 
@@ -69,14 +82,16 @@ public class MD5 {
                 }
             } while (numRead != -1);
 
-            fis.close();
             return complete.digest();
-        } catch (FileNotFoundException ex) {
-            return null;
         } catch (IOException ex) {
             return null;
         } catch (NoSuchAlgorithmException ex) {
             return null;
+        } finally {
+            try {
+                fis.close();
+            } catch (IOException ex) {
+            }
         }
     }
 
@@ -117,4 +132,18 @@ public class MD5 {
             return "?";
         }
     }
+
+    /**
+     * Get MD5 hash string for stream, the stream is closed
+     * @param stream the data stream
+     * @return MD5
+     */
+    public static String getMD5Checksum(InputStream stream) {
+        try {
+            byte[] b = createChecksum(stream);
+            return getHexString(b);
+        } catch (Exception ex) {
+            return "?";
+        }
+    }
 }
\ No newline at end of file
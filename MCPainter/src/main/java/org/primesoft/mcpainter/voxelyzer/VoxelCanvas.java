@@ -23,7 +23,6 @@
  */
 package org.primesoft.mcpainter.voxelyzer;
 
-import java.awt.Color;
 import org.primesoft.mcpainter.blocksplacer.BlockLoger;
 import org.primesoft.mcpainter.configuration.OperationType;
 import org.primesoft.mcpainter.drawing.IColorMap;
@@ -283,7 +282,8 @@ public class VoxelCanvas {
         Vertex pp = new Vertex(p1);
         for (int i = 0; i <= cnt; i++) {
             final BaseBlock block;
-            final Color color;
+            final boolean hasColor;
+            final int color;
             final double[] data = pp.getData();
 
             if (textureImage != null && !Double.isNaN(data[3]) && !Double.isNaN(data[4])) {
@@ -301,16 +301,20 @@ public class VoxelCanvas {
                     v = h - v;
                 }
 
-                color = ImageHelper.getColor(textureImage, u, v);
+                color = ImageHelper.getArgb(textureImage, u, v);
+                hasColor = true;
             } else if (isValidRGB(data[3]) && isValidRGB(data[4]) && isValidRGB(data[5])) {
-                color = new Color((int) Math.round(data[3]), (int) Math.round(data[4]), (int) Math.round(data[5]), 0xff);
+                color = 0xff000000 | ((int) Math.round(data[3]) << 16)
+                        | ((int) Math.round(data[4]) << 8) | (int) Math.round(data[5]);
+                hasColor = true;
             } else {
-                color = null;
+                color = 0;
+                hasColor = false;
             }
            
             Vector l = new Vector(data[0], data[1], data[2]);
-            if (color != null) {                
-                colorMap.getBlockForColor(color, OperationType.Statue)
+            if (hasColor) {
+                colorMap.getBlockForArgb(color, OperationType.Statue)
                         .place(origin, l, loger);
             } else {
                 loger.logBlock(l, STONE);
@@ -23,9 +23,12 @@
  */
 package org.primesoft.mcpainter.worldEdit;
 
+import java.util.Arrays;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.primesoft.mcpainter.BlocksHubIntegration;
+import org.primesoft.mcpainter.blocksplacer.PhysicsMode;
+import org.primesoft.mcpainter.configuration.ConfigProvider;
 import org.primesoft.mcpainter.utils.BaseBlock;
 import org.primesoft.mcpainter.utils.Vector;
 
@@ -37,13 +40,63 @@ abstract class BaseEditSession implements IEditSession {
     private final Player m_player;
     private final BlocksHubIntegration m_bh;
     protected final World m_world;
+    protected final PhysicsMode m_physics;
+    /**
+     * Packed positions of the blocks placed without physics
+     */
+    private long[] m_touched;
+    private int m_touchedCount;
     
     protected BaseEditSession(ILocalPlayer p, BlocksHubIntegration bh) {
         m_bh = bh;
         m_world = p.getWorld();
         m_player = p.getPlayer();
+        m_physics = ConfigProvider.getPhysicsMode();
+    }
+
+    /**
+     * Remember the block for the deferred physics update
+     *
+     * @param pos packed block position
+     */
+    protected void deferPhysics(long pos) {
+        if (m_physics != PhysicsMode.Deferred) {
+            return;
+        }
+
+        if (m_touched == null) {
+            m_touched = new long[1024];
+        } else if (m_touchedCount == m_touched.length) {
+            m_touched = Arrays.copyOf(m_touched, m_touchedCount * 2);
+        }
+        m_touched[m_touchedCount++] = pos;
+    }
+
+    @Override
+    public long[] finish() {
+        if (m_touchedCount == 0) {
+            return null;
+        }
+
+        long[] result = Arrays.copyOf(m_touched, m_touchedCount);
+        m_touched = null;
+        m_touchedCount = 0;
+        return result;
     }
     
+    /**
+     * Are the placed blocks logged, the old block is needed only when logging
+     *
+     * @return
+     */
+    protected boolean isLogging() {
+        return m_bh.isLogging();
+    }
+
+    @Override
+    public void flush() {
+    }
+
     protected void logBlock(Vector location, BaseBlock oldBlock, BaseBlock newBlock) {
         m_bh.logBlock(m_player, m_world, location, oldBlock, newBlock);
     }
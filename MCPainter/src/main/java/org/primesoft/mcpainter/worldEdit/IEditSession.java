@@ -24,7 +24,6 @@
 
 package org.primesoft.mcpainter.worldEdit;
 
-import java.util.List;
 import org.primesoft.mcpainter.utils.BaseBlock;
 import org.primesoft.mcpainter.utils.Vector;
 import org.primesoft.mcpainter.blocksplacer.IChange;
@@ -40,6 +39,17 @@ public interface IEditSession {
     public void setBlock(Vector location, BaseBlock block) throws MaxChangedBlocksException;
 
     public void doCustom(IChange command)  throws MaxChangedBlocksException;
-    
-    public List<IChange> getChangeSet();
+
+    /**
+     * Apply the buffered changes, called once per block placer run
+     */
+    public void flush();
+
+    /**
+     * All blocks are placed, finish the pending work
+     *
+     * @return packed positions of the blocks that need the deferred physics
+     * update, null if none
+     */
+    public long[] finish();
 }
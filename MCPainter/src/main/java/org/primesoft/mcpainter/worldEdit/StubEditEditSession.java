@@ -23,25 +23,31 @@
  */
 package org.primesoft.mcpainter.worldEdit;
 
-import java.util.ArrayList;
-import java.util.List;
 import org.primesoft.mcpainter.utils.BaseBlock;
 import org.primesoft.mcpainter.utils.Vector;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
 import org.primesoft.mcpainter.BlocksHubIntegration;
 import org.primesoft.mcpainter.blocksplacer.IChange;
+import org.primesoft.mcpainter.blocksplacer.PackedPosition;
+import org.primesoft.mcpainter.blocksplacer.PhysicsMode;
 
 /**
  *
  * @author SBPrime
  */
 class StubEditEditSession extends BaseEditSession {
-    private final List<IChange> m_changeSet= new ArrayList<>();
+    private final UndoLog m_undoLog;
     
-    public StubEditEditSession(ILocalPlayer localPlayer, BlocksHubIntegration bh) {
+    public StubEditEditSession(ILocalPlayer localPlayer, BlocksHubIntegration bh, UndoLog undoLog) {
         super(localPlayer, bh);
+        m_undoLog = undoLog;
+    }
+
+    public UndoLog getUndoLog() {
+        return m_undoLog;
     }
 
     @Override
@@ -58,62 +64,33 @@ class StubEditEditSession extends BaseEditSession {
 
     @Override
     public void setBlock(Vector location, BaseBlock block) throws MaxChangedBlocksException {
-        Location l = new Location(m_world, location.getX(), location.getY(), location.getZ());
-        Chunk chunk = l.getChunk();
-        if (!chunk.isLoaded()) {
-            chunk.load();
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+        if (!m_world.isChunkLoaded(x >> 4, z >> 4)) {
+            m_world.loadChunk(x >> 4, z >> 4);
         }
 
-        Block b = l.getBlock();
-        BaseBlock oldBlock = new BaseBlock(b.getBlockData().clone());
-        b.setBlockData(block.Data);
+        Block b = m_world.getBlockAt(x, y, z);
+        BlockData oldData = b.getBlockData();
+        long pos = PackedPosition.pack(x, y, z);
+        if (m_physics == PhysicsMode.Normal) {
+            b.setBlockData(block.Data);
+        } else {
+            b.setBlockData(block.Data, false);
+            deferPhysics(pos);
+        }
 
-        IChange setBlockUndo = new UndoSetBlock(l, oldBlock);
-        logBlock(location, oldBlock, block);        
-        m_changeSet.add(setBlockUndo);
+        m_undoLog.addBlock(pos, oldData);
+        if (isLogging()) {
+            logBlock(location, new BaseBlock(oldData), block);
+        }
     }
 
     @Override
     public void doCustom(IChange command) throws MaxChangedBlocksException {
         command.redo();
         
-        m_changeSet.add(command);
-    }
-
-    @Override
-    public List<IChange> getChangeSet() {
-        return m_changeSet;
-    }
-
-    private static class UndoSetBlock implements IChange {
-
-        private final Location m_location;
-        private final BaseBlock m_block;
-
-        public UndoSetBlock(Location l, BaseBlock oldBlock) {
-            m_location = l;
-            m_block = oldBlock;
-        }
-
-        @Override
-        public Location getLocation() {
-            return m_location;
-        }
-
-        @Override
-        public void redo() {
-            throw new UnsupportedOperationException("Not supported, this is only for undo.");
-        }
-
-        @Override
-        public void undo() {
-            Chunk chunk = m_location.getChunk();
-            if (!chunk.isLoaded()) {
-                chunk.load();
-            }
-
-            Block b = m_location.getBlock();
-            b.setBlockData(m_block.Data);
-        }
+        m_undoLog.addChange(command);
     }
 }
@@ -45,7 +45,7 @@ class StubLocalSession implements ILocalSession {
 
     @Override
     public void remember(IEditSession eSession) {
-        m_wrapper.setChangeset(m_player, eSession.getChangeSet());
+        m_wrapper.setUndoLog(m_player, ((StubEditEditSession) eSession).getUndoLog());
     }
 
     @Override
@@ -54,7 +54,8 @@ class StubLocalSession implements ILocalSession {
             throw new UnsupportedOperationException("Invalid argument."); 
         }
         
-        return new StubEditEditSession((StubLocalPlayer)localPlayer, m_bh);
+        return new StubEditEditSession((StubLocalPlayer)localPlayer, m_bh,
+                m_wrapper.createUndoLog(m_player, localPlayer.getWorld()));
     }
     
 }
@@ -23,20 +23,33 @@
  */
 package org.primesoft.mcpainter.worldEdit;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
 import org.primesoft.mcpainter.BlocksHubIntegration;
 import org.primesoft.mcpainter.blocksplacer.BlockLoger;
 import org.primesoft.mcpainter.blocksplacer.BlockLogerEntry;
 import org.primesoft.mcpainter.blocksplacer.BlockPlacer;
 import org.primesoft.mcpainter.blocksplacer.IChange;
+import org.primesoft.mcpainter.blocksplacer.PackedPosition;
+import org.primesoft.mcpainter.blocksplacer.PhysicsEntry;
+import org.primesoft.mcpainter.blocksplacer.PhysicsMode;
+import org.primesoft.mcpainter.blocksplacer.PlacerJob;
+import org.primesoft.mcpainter.configuration.ConfigProvider;
 
 /**
  *
@@ -46,14 +59,21 @@ class StubWrapper implements IWorldEdit, Listener {
 
     private static class Entry {
 
-        public List<IChange> ChangeSet;
+        public UndoLog UndoLog;
+
+        /**
+         * Memory used by the player undo logs
+         */
+        public final AtomicLong Memory = new AtomicLong();
     }
 
+    private final JavaPlugin m_plugin;
     private final BlocksHubIntegration m_bh;
     private final BlockPlacer m_bp;
     private final ConcurrentMap<UUID, Entry> m_changeSets = new ConcurrentHashMap<>();
 
-    public StubWrapper(BlocksHubIntegration bh, BlockPlacer bp) {
+    public StubWrapper(JavaPlugin plugin, BlocksHubIntegration bh, BlockPlacer bp) {
+        m_plugin = plugin;
         m_bh = bh;
         m_bp = bp;
     }
@@ -78,16 +98,37 @@ class StubWrapper implements IWorldEdit, Listener {
         return null;
     }
 
-    void setChangeset(Player player, final List<IChange> changeSet) {
-        m_changeSets.computeIfPresent(player.getUniqueId(), (uuid, entry) -> {
-            entry.ChangeSet = changeSet;
+    /**
+     * Create new undo log for the player
+     *
+     * @param player
+     * @param world
+     * @return
+     */
+    UndoLog createUndoLog(Player player, World world) {
+        Entry entry = m_changeSets.get(player.getUniqueId());
+        return new UndoLog(world, entry != null ? entry.Memory : new AtomicLong());
+    }
+
+    void setUndoLog(Player player, final UndoLog undoLog) {
+        Entry e = m_changeSets.computeIfPresent(player.getUniqueId(), (uuid, entry) -> {
+            if (entry.UndoLog != null) {
+                entry.UndoLog.dispose();
+            }
+            entry.UndoLog = undoLog;
             return entry;
         });
+        if (e == null) {
+            undoLog.dispose();
+        }
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent e) {
-        m_changeSets.remove(e.getPlayer().getUniqueId());
+        Entry entry = m_changeSets.remove(e.getPlayer().getUniqueId());
+        if (entry != null && entry.UndoLog != null) {
+            entry.UndoLog.dispose();
+        }
     }
 
     @EventHandler
@@ -96,26 +137,225 @@ class StubWrapper implements IWorldEdit, Listener {
     }
 
     @Override
-    public void undo(Player player) {
-        m_changeSets.computeIfPresent(player.getUniqueId(), (uuid, entry) -> {            
-            List<IChange> changes = entry.ChangeSet;
-            entry.ChangeSet = null;
+    public void undo(final Player player) {
+        final UndoLog[] undoLog = new UndoLog[1];
+        m_changeSets.computeIfPresent(player.getUniqueId(), (uuid, entry) -> {
+            undoLog[0] = entry.UndoLog;
+            entry.UndoLog = null;
+            return entry;
+        });
 
-            if (changes == null) {
-                return entry;
-            }
-                        
-            BlockLogerEntry[] entries = new BlockLogerEntry[changes.size()];
-            int idx = 0;
-            for (IChange ch : changes) {
-                entries[idx] = new UndoEntry(ch);
-                idx++;
+        if (undoLog[0] == null) {
+            return;
+        }
+
+        final PlacerJob job = m_bp.createJob(player);
+        m_plugin.getServer().getScheduler().runTaskAsynchronously(m_plugin, () -> {
+            try {
+                new UndoBuilder(m_bp, job, undoLog[0].getWorld()).build(undoLog[0]);
+            } finally {
+                undoLog[0].dispose();
+                m_bp.closeJob(job);
             }
-            m_bp.addTasks(entries, player);
-            return entry;
         });
     }
 
+    /**
+     * Creates the undo entries. The log is replayed from the newest change and
+     * added to the job in batches of {@link #BATCH_SIZE} blocks, the builder
+     * waits for the queue capacity between the batches. The oldest old block
+     * is restored last so it stays in the world. The blocks between the custom
+     * changes are grouped by chunk. In the deferred physics mode the physics of
+     * the restored blocks is queued after a barrier once all blocks are
+     * restored, the positions of the restored blocks are kept until then.
+     */
+    private static class UndoBuilder implements UndoLog.Visitor {
+
+        /**
+         * Number of blocks added to the job at once
+         */
+        private static final int BATCH_SIZE = 65536;
+
+        private final BlockPlacer m_bp;
+        private final PlacerJob m_job;
+        private final World m_world;
+        private final boolean m_deferPhysics;
+        private final List<BlockLogerEntry> m_batch = new ArrayList<>();
+        private final Map<Long, UndoChunkEntry> m_chunks = new LinkedHashMap<>();
+        private final List<BlockLogerEntry> m_physics = new ArrayList<>();
+        private int m_blocks;
+
+        UndoBuilder(BlockPlacer bp, PlacerJob job, World world) {
+            m_bp = bp;
+            m_job = job;
+            m_world = world;
+            m_deferPhysics = ConfigProvider.getPhysicsMode() == PhysicsMode.Deferred;
+        }
+
+        public void build(UndoLog undoLog) {
+            undoLog.forEach(true, this);
+            flush();
+
+            if (!m_physics.isEmpty() && !isCancelled()) {
+                m_physics.add(0, new BarrierEntry());
+                m_bp.addTasks(m_physics.toArray(new BlockLogerEntry[0]), m_job);
+            }
+        }
+
+        @Override
+        public void block(long pos, BlockData data) {
+            if (isCancelled()) {
+                return;
+            }
+
+            long chunkKey = PackedPosition.getChunkKey(pos);
+            UndoChunkEntry entry = m_chunks.get(chunkKey);
+            if (entry == null || entry.isFull()) {
+                if (entry != null) {
+                    addChunk(entry);
+                }
+                entry = new UndoChunkEntry(m_world, chunkKey);
+                m_chunks.put(chunkKey, entry);
+            }
+            entry.add(pos, data);
+
+            if (++m_blocks >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void change(IChange change) {
+            if (isCancelled()) {
+                return;
+            }
+
+            addChunks();
+            m_batch.add(new UndoEntry(change));
+        }
+
+        private boolean isCancelled() {
+            return m_job.getState() == PlacerJob.State.Cancelled;
+        }
+
+        private void addChunk(UndoChunkEntry entry) {
+            m_batch.add(entry);
+            if (m_deferPhysics) {
+                m_physics.add(entry.createPhysics());
+            }
+        }
+
+        private void addChunks() {
+            for (UndoChunkEntry entry : m_chunks.values()) {
+                addChunk(entry);
+            }
+            m_chunks.clear();
+        }
+
+        /**
+         * Add the batch to the job and wait for the queue capacity
+         */
+        private void flush() {
+            addChunks();
+            if (!m_batch.isEmpty()) {
+                m_bp.addTasks(m_batch.toArray(new BlockLogerEntry[0]), m_job).join();
+            }
+            m_batch.clear();
+            m_blocks = 0;
+        }
+    }
+
+    /**
+     * Restores the old blocks in one chunk
+     */
+    private static class UndoChunkEntry extends BlockLogerEntry {
+
+        /**
+         * Maximum number of blocks restored by one entry
+         */
+        private static final int CAPACITY = PhysicsEntry.MAX_SIZE;
+
+        private final World m_world;
+        private final long m_chunkKey;
+        private final long[] m_positions = new long[CAPACITY];
+        private final BlockData[] m_blocks = new BlockData[CAPACITY];
+        private int m_count;
+
+        public UndoChunkEntry(World world, long chunkKey) {
+            super(null);
+            m_world = world;
+            m_chunkKey = chunkKey;
+        }
+
+        public boolean isFull() {
+            return m_count == CAPACITY;
+        }
+
+        public void add(long pos, BlockData data) {
+            m_positions[m_count] = pos;
+            m_blocks[m_count] = data;
+            m_count++;
+        }
+
+        /**
+         * Create the deferred physics update of the restored blocks
+         *
+         * @return
+         */
+        public PhysicsEntry createPhysics() {
+            PhysicsEntry result = new PhysicsEntry(m_world, m_chunkKey);
+            for (int i = 0; i < m_count; i++) {
+                result.add(m_positions[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean canRemove() {
+            return true;
+        }
+
+        @Override
+        public World getWorld() {
+            return m_world;
+        }
+
+        @Override
+        public long getChunkKey() {
+            return m_chunkKey;
+        }
+
+        @Override
+        public void execute() {
+            final boolean physics = ConfigProvider.getPhysicsMode() == PhysicsMode.Normal;
+            for (int i = 0; i < m_count; i++) {
+                long pos = m_positions[i];
+                m_world.getBlockAt(PackedPosition.getX(pos), PackedPosition.getY(pos),
+                        PackedPosition.getZ(pos)).setBlockData(m_blocks[i], physics);
+            }
+        }
+    }
+
+    /**
+     * Ordering barrier, the entries after it are not sorted with the entries
+     * before it
+     */
+    private static class BarrierEntry extends BlockLogerEntry {
+
+        public BarrierEntry() {
+            super(null);
+        }
+
+        @Override
+        public boolean canRemove() {
+            return true;
+        }
+
+        @Override
+        public void execute() {
+        }
+    }
+
     private static class UndoEntry extends BlockLogerEntry {
 
         private final IChange m_change;
@@ -130,6 +370,12 @@ class StubWrapper implements IWorldEdit, Listener {
             return true;
         }
 
+        @Override
+        public World getWorld() {
+            Location l = m_change.getLocation();
+            return l != null ? l.getWorld() : null;
+        }
+
         @Override
         public void execute() {
             m_change.undo();
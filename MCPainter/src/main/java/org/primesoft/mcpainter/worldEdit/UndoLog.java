@@ -0,0 +1,308 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.worldEdit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.primesoft.mcpainter.MCPainterMain;
+import org.primesoft.mcpainter.blocksplacer.IChange;
+import org.primesoft.mcpainter.configuration.ConfigProvider;
+
+/**
+ * Undo log of the stub edit session. The old blocks are stored as packed
+ * positions and indices of interned block data. When the player undo memory
+ * limit is reached the blocks are moved to a file.
+ *
+ * @author SBPrime
+ */
+class UndoLog {
+
+    /**
+     * Undo log records consumer
+     */
+    interface Visitor {
+
+        /**
+         * Block record
+         *
+         * @param pos packed block position
+         * @param data the old block
+         */
+        void block(long pos, BlockData data);
+
+        /**
+         * Custom change record
+         *
+         * @param change the change
+         */
+        void change(IChange change);
+    }
+
+    /**
+     * Size of one record (position + block index)
+     */
+    private static final int RECORD_SIZE = 12;
+
+    /**
+     * Estimated size of one interned block data
+     */
+    private static final int PALETTE_ENTRY_SIZE = 64;
+
+    private static final int INITIAL_SIZE = 1024;
+
+    private final World m_world;
+
+    /**
+     * Memory used by the player undo logs
+     */
+    private final AtomicLong m_memory;
+
+    /**
+     * Memory accounted by this log
+     */
+    private long m_accounted;
+
+    private final Map<BlockData, Integer> m_paletteIdx = new HashMap<>();
+    private final List<BlockData> m_palette = new ArrayList<>();
+
+    /**
+     * Custom changes, stored in the block column as -1 - index
+     */
+    private final List<IChange> m_changes = new ArrayList<>();
+
+    private long[] m_positions = new long[INITIAL_SIZE];
+    private int[] m_blocks = new int[INITIAL_SIZE];
+    private int m_count;
+
+    /**
+     * The spill file, records moved out of memory
+     */
+    private File m_file;
+    private RandomAccessFile m_spill;
+    private final List<Integer> m_spillCounts = new ArrayList<>();
+    private long m_spillSize;
+
+    UndoLog(World world, AtomicLong memory) {
+        m_world = world;
+        m_memory = memory;
+        account(INITIAL_SIZE * RECORD_SIZE);
+    }
+
+    public World getWorld() {
+        return m_world;
+    }
+
+    /**
+     * Number of records
+     *
+     * @return
+     */
+    public synchronized int size() {
+        int result = m_count;
+        for (int cnt : m_spillCounts) {
+            result += cnt;
+        }
+        return result;
+    }
+
+    /**
+     * Log the old block
+     *
+     * @param pos packed block position
+     * @param data the old block
+     */
+    public synchronized void addBlock(long pos, BlockData data) {
+        Integer idx = m_paletteIdx.get(data);
+        if (idx == null) {
+            idx = m_palette.size();
+            m_palette.add(data);
+            m_paletteIdx.put(data, idx);
+            account(PALETTE_ENTRY_SIZE);
+        }
+
+        add(pos, idx);
+    }
+
+    /**
+     * Log the custom change
+     *
+     * @param change
+     */
+    public synchronized void addChange(IChange change) {
+        m_changes.add(change);
+        add(0, -m_changes.size());
+    }
+
+    private void add(long pos, int block) {
+        if (m_count == m_positions.length) {
+            if (m_memory.get() > ConfigProvider.getUndoMemory() && spill()) {
+                m_count = 0;
+            } else {
+                int size = Math.max(INITIAL_SIZE, m_count * 2);
+                account((size - m_positions.length) * (long) RECORD_SIZE);
+                m_positions = Arrays.copyOf(m_positions, size);
+                m_blocks = Arrays.copyOf(m_blocks, size);
+            }
+        }
+
+        m_positions[m_count] = pos;
+        m_blocks[m_count] = block;
+        m_count++;
+    }
+
+    /**
+     * Update the memory used by the log
+     *
+     * @param bytes
+     */
+    private void account(long bytes) {
+        m_accounted += bytes;
+        m_memory.addAndGet(bytes);
+    }
+
+    /**
+     * Move the records to the spill file and shrink the buffers
+     *
+     * @return true if the records were moved
+     */
+    private boolean spill() {
+        try {
+            if (m_spill == null) {
+                m_file = File.createTempFile("undo", ".log", ConfigProvider.getUndoFolder());
+                m_file.deleteOnExit();
+                m_spill = new RandomAccessFile(m_file, "rw");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(m_count * RECORD_SIZE);
+            for (int i = 0; i < m_count; i++) {
+                buffer.putLong(m_positions[i]);
+                buffer.putInt(m_blocks[i]);
+            }
+            m_spill.seek(m_spillSize);
+            m_spill.write(buffer.array());
+            m_spillSize += buffer.capacity();
+            m_spillCounts.add(m_count);
+        } catch (IOException ex) {
+            MCPainterMain.log("Unable to write undo log: " + ex.getMessage());
+            return false;
+        }
+
+        account((INITIAL_SIZE - m_positions.length) * (long) RECORD_SIZE);
+        m_positions = new long[INITIAL_SIZE];
+        m_blocks = new int[INITIAL_SIZE];
+        return true;
+    }
+
+    /**
+     * Visit all records
+     *
+     * @param reverse visit the newest record first
+     * @param visitor
+     */
+    public synchronized void forEach(boolean reverse, Visitor visitor) {
+        if (reverse) {
+            visit(m_positions, m_blocks, m_count, true, visitor);
+        }
+
+        if (!m_spillCounts.isEmpty()) {
+            try {
+                final int parts = m_spillCounts.size();
+                long[] offsets = new long[parts];
+                for (int i = 1; i < parts; i++) {
+                    offsets[i] = offsets[i - 1] + m_spillCounts.get(i - 1) * (long) RECORD_SIZE;
+                }
+
+                for (int i = 0; i < parts; i++) {
+                    int part = reverse ? parts - 1 - i : i;
+                    int cnt = m_spillCounts.get(part);
+                    byte[] data = new byte[cnt * RECORD_SIZE];
+                    m_spill.seek(offsets[part]);
+                    m_spill.readFully(data);
+
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    long[] positions = new long[cnt];
+                    int[] blocks = new int[cnt];
+                    for (int j = 0; j < cnt; j++) {
+                        positions[j] = buffer.getLong();
+                        blocks[j] = buffer.getInt();
+                    }
+                    visit(positions, blocks, cnt, reverse, visitor);
+                }
+            } catch (IOException ex) {
+                MCPainterMain.log("Unable to read undo log: " + ex.getMessage());
+            }
+        }
+
+        if (!reverse) {
+            visit(m_positions, m_blocks, m_count, false, visitor);
+        }
+    }
+
+    private void visit(long[] positions, int[] blocks, int cnt, boolean reverse, Visitor visitor) {
+        for (int i = 0; i < cnt; i++) {
+            int idx = reverse ? cnt - 1 - i : i;
+            int block = blocks[idx];
+            if (block >= 0) {
+                visitor.block(positions[idx], m_palette.get(block));
+            } else {
+                visitor.change(m_changes.get(-1 - block));
+            }
+        }
+    }
+
+    /**
+     * Release the memory and remove the spill file
+     */
+    public synchronized void dispose() {
+        m_memory.addAndGet(-m_accounted);
+        m_accounted = 0;
+        m_positions = new long[0];
+        m_blocks = new int[0];
+        m_count = 0;
+        m_changes.clear();
+        m_palette.clear();
+        m_paletteIdx.clear();
+        m_spillCounts.clear();
+
+        if (m_spill != null) {
+            try {
+                m_spill.close();
+            } catch (IOException ex) {
+                MCPainterMain.log("Unable to close undo log: " + ex.getMessage());
+            }
+            m_file.delete();
+            m_spill = null;
+        }
+    }
+}
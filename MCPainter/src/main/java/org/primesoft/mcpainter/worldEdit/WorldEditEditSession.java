@@ -28,11 +28,12 @@ import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.history.UndoContext;
 import com.sk89q.worldedit.history.change.Change;
 import com.sk89q.worldedit.history.changeset.ChangeSet;
-import java.util.List;
 
 import com.sk89q.worldedit.math.BlockVector3;
 import org.primesoft.mcpainter.BlocksHubIntegration;
 import org.primesoft.mcpainter.blocksplacer.IChange;
+import org.primesoft.mcpainter.blocksplacer.PackedPosition;
+import org.primesoft.mcpainter.blocksplacer.PhysicsMode;
 import org.primesoft.mcpainter.utils.BaseBlock;
 import org.primesoft.mcpainter.utils.Vector;
 
@@ -65,6 +66,10 @@ class WorldEditEditSession extends BaseEditSession {
     public WorldEditEditSession(ILocalPlayer p, EditSession editSession, BlocksHubIntegration bh) {
         super(p, bh);
         m_editSession = editSession;
+        m_editSession.enableQueue();
+        if (m_physics != PhysicsMode.Normal) {
+            m_editSession.setFastMode(true);
+        }
     }
 
     public EditSession getEditSession() {
@@ -79,7 +84,8 @@ class WorldEditEditSession extends BaseEditSession {
     @Override
     public void setBlock(Vector location, BaseBlock block) throws MaxChangedBlocksException {
         BlockVector3 weLocaton = WorldEditWrapper.convert(location);
-        BaseBlock oldBlock = WorldEditWrapper.convert(m_editSession.getBlock(weLocaton));
+        final boolean logging = isLogging();
+        BaseBlock oldBlock = logging ? WorldEditWrapper.convert(m_editSession.getBlock(weLocaton)) : null;
         com.sk89q.worldedit.world.block.BlockState weBlock = WorldEditWrapper.convert(block);
         try {
             m_editSession.setBlock(weLocaton, weBlock);
@@ -87,19 +93,29 @@ class WorldEditEditSession extends BaseEditSession {
             throw new MaxChangedBlocksException();
         }
 
-        logBlock(location, oldBlock, block);
+        deferPhysics(PackedPosition.pack(location));
+        if (logging) {
+            logBlock(location, oldBlock, block);
+        }
     }
 
     @Override
     public void doCustom(IChange command) throws MaxChangedBlocksException {
         ChangeSet cs = m_editSession.getChangeSet();
+        m_editSession.flushQueue();
         command.redo();
         cs.add(new ChangeWrapper(command));
     }
-    
+
+    @Override
+    public void flush() {
+        m_editSession.flushQueue();
+    }
+
     @Override
-    public List<IChange> getChangeSet() {
-        return null;
+    public long[] finish() {
+        m_editSession.flushQueue();
+        return super.finish();
     }
 
 }
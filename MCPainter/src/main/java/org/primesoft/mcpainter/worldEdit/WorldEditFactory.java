@@ -58,7 +58,7 @@ public class WorldEditFactory {
         
         MCPainterMain.log("WorldEdit not found - using stub wrapper classes.");
         
-        StubWrapper result = new StubWrapper(plugin.getBlocksHub(), plugin.getBlockPlacer());
+        StubWrapper result = new StubWrapper(plugin, plugin.getBlocksHub(), plugin.getBlockPlacer());
         plugin.getServer().getPluginManager().registerEvents(result, plugin);
         return result;
     }
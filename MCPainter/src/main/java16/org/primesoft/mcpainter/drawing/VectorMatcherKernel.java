@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.mcpainter.drawing;
+
+import java.util.Arrays;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API batch search. The distances to all palette colors are computed
+ * in float lanes, the colors close to the lowest distance are then checked
+ * with the exact double distance in palette order, so the results are the
+ * same as the scalar search (the lowest index wins ties).
+ *
+ * @author SBPrime
+ */
+class VectorMatcherKernel extends MatcherKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * Relative and absolute tolerance of the float distance, much larger
+     * than the float rounding error
+     */
+    private static final float TOLERANCE = 1e-4f;
+
+    /**
+     * Alpha of the padding colors, never matched
+     */
+    private static final float PADDING_ALPHA = 1e9f;
+
+    /**
+     * Exact palette colors
+     */
+    private final int[] m_red;
+    private final int[] m_green;
+    private final int[] m_blue;
+    private final int[] m_alpha;
+
+    /**
+     * Palette colors padded to the vector length
+     */
+    private final float[] m_redF;
+    private final float[] m_greenF;
+    private final float[] m_blueF;
+    private final float[] m_alphaF;
+
+    VectorMatcherKernel(int[] red, int[] green, int[] blue, int[] alpha) {
+        final int cnt = red.length;
+        final int padded = SPECIES.loopBound(cnt + SPECIES.length() - 1);
+        m_red = red;
+        m_green = green;
+        m_blue = blue;
+        m_alpha = alpha;
+        m_redF = new float[padded];
+        m_greenF = new float[padded];
+        m_blueF = new float[padded];
+        m_alphaF = new float[padded];
+        Arrays.fill(m_alphaF, cnt, padded, PADDING_ALPHA);
+        for (int i = 0; i < cnt; i++) {
+            m_redF[i] = red[i];
+            m_greenF[i] = green[i];
+            m_blueF[i] = blue[i];
+            m_alphaF[i] = alpha[i];
+        }
+    }
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void findClosest(ColorMatcher matcher, int[] argb, int offset, int count, int[] result) {
+        final float[] dist = new float[m_redF.length];
+        for (int i = 0; i < count; i++) {
+            int c = argb[offset + i];
+            result[i] = findClosest((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff, c >>> 24, dist);
+        }
+    }
+
+    /**
+     * Find the closest palette color
+     *
+     * @param r red
+     * @param g green
+     * @param b blue
+     * @param a alpha
+     * @param dist the float distances buffer
+     * @return palette index or -1 if the palette is empty
+     */
+    private int findClosest(int r, int g, int b, int a, float[] dist) {
+        final int cnt = m_red.length;
+        if (cnt == 0) {
+            return -1;
+        }
+
+        final FloatVector vr = FloatVector.broadcast(SPECIES, r);
+        final FloatVector vg = FloatVector.broadcast(SPECIES, g);
+        final FloatVector vb = FloatVector.broadcast(SPECIES, b);
+        final FloatVector va = FloatVector.broadcast(SPECIES, a);
+        final FloatVector opaque = FloatVector.broadcast(SPECIES, 512f);
+        final FloatVector translucent = FloatVector.broadcast(SPECIES, 512000f);
+        float lowest = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < dist.length; i += SPECIES.length()) {
+            FloatVector r2 = FloatVector.fromArray(SPECIES, m_redF, i);
+            FloatVector da = FloatVector.fromArray(SPECIES, m_alphaF, i).sub(va);
+            VectorMask<Float> lessTransparent = da.compare(VectorOperators.GE, 0f);
+            da = da.abs().mul(translucent.blend(opaque, lessTransparent));
+
+            FloatVector rmean = vr.add(r2).mul(0.5f);
+            FloatVector dr = vr.sub(r2);
+            FloatVector dg = vg.sub(FloatVector.fromArray(SPECIES, m_greenF, i));
+            FloatVector db = vb.sub(FloatVector.fromArray(SPECIES, m_blueF, i));
+            FloatVector sq = rmean.mul(1 / 256f).add(2f).mul(dr).mul(dr)
+                    .add(dg.mul(dg).mul(4f))
+                    .add(rmean.neg().add(255f).mul(1 / 256f).add(2f).mul(db).mul(db));
+            FloatVector d = sq.sqrt().add(da);
+            d.intoArray(dist, i);
+            lowest = Math.min(lowest, d.reduceLanes(VectorOperators.MIN));
+        }
+
+        final float bound = lowest * (1 + TOLERANCE) + TOLERANCE;
+        int result = -1;
+        double closest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < cnt; i++) {
+            if (dist[i] > bound) {
+                continue;
+            }
+
+            double d = ImageHelper.colorDistance(r, g, b, a, m_red[i], m_green[i], m_blue[i], m_alpha[i]);
+            if (d < closest) {
+                result = i;
+                closest = d;
+            }
+        }
+        return result;
+    }
+}